@@ -0,0 +1,24 @@
+#version 430
+layout(local_size_x = 16, local_size_y = 16, local_size_z = 1) in;
+layout(rgba32f, binding = 1) readonly uniform image2D img_input;
+
+// attraction of every pixel for species 0 (blue - red), species 1 senses the negated value
+layout(r32f, binding = 2) writeonly uniform image2D img_attraction;
+
+uniform int width;
+uniform int height;
+
+void main() {
+    ivec2 id = ivec2(gl_GlobalInvocationID.xy);
+    if(id.x >= width || id.y >= height) {
+        return;
+    }
+
+    vec4 value = imageLoad(img_input, id);
+#ifdef RED_BLUE_LAYOUT
+    // two channel map, blue is in y
+    imageStore(img_attraction, id, vec4(value.y - value.x, 0, 0, 0));
+#else
+    imageStore(img_attraction, id, vec4(value.z - value.x, 0, 0, 0));
+#endif
+}
@@ -0,0 +1,77 @@
+#version 430
+layout(local_size_x = 256, local_size_y = 1, local_size_z = 1) in;
+// prefix sums of the separable box blur, one work group per row (blurPass 0) or per column (blurPass 1).
+// pass 0 sums the trail map along the rows. pass 1 takes the horizontal window of every pixel as the difference
+// of two row prefix sums and sums these along the columns, posProcessing.shader takes the vertical window the same way.
+// every pixel costs the same for any blurSize.
+// the sums are 16.16 fixed point with wrapping uint arithmetic like the summed area table of integral.shader:
+// the prefix sums overflow, but the difference of two of them is exact as long as the window sum fits into 32 bits,
+// which holds for values of up to 1 and a blurSize of up to 127
+layout(rgba32f, binding = 1) readonly uniform image2D img_input;
+
+// prefix sums along the rows, written by pass 0 and read by pass 1
+layout(SUM_FORMAT, binding = 5) uniform uimage2D img_rowPrefix;
+
+// prefix sums of the horizontal window sums along the columns, written by pass 1
+layout(SUM_FORMAT, binding = 4) writeonly uniform uimage2D img_columnPrefix;
+
+uniform int width;
+uniform int height;
+uniform int blurSize;
+
+// 0 for the row prefix sums, 1 for the column prefix sums
+uniform int blurPass;
+
+const int GROUP_SIZE = 256;
+
+const float SCALE = 65536.0;
+
+// the chunk of the line the work group scans
+shared uvec4 scan[GROUP_SIZE];
+
+// value summed up at a position of the line
+uvec4 element(int line, int position) {
+    if(blurPass == 0) {
+        return uvec4(max(imageLoad(img_input, ivec2(position, line)), vec4(0)) * SCALE + 0.5);
+    }
+    // horizontal window of the pixel, the pixels outside of the row count as zero
+    ivec2 id = ivec2(line, position);
+    uvec4 sum = imageLoad(img_rowPrefix, ivec2(min(id.x + blurSize, width - 1), id.y));
+    if(id.x - blurSize - 1 >= 0) {
+        sum -= imageLoad(img_rowPrefix, ivec2(id.x - blurSize - 1, id.y));
+    }
+    return sum;
+}
+
+void main() {
+    int line = int(gl_WorkGroupID.x);
+    int local = int(gl_LocalInvocationID.x);
+    int lineLength = blurPass == 0 ? width : height;
+
+    // sum of the chunks before the current one, the same in every invocation
+    uvec4 carry = uvec4(0);
+    for(int chunk = 0; chunk < lineLength; chunk += GROUP_SIZE) {
+        int position = chunk + local;
+        scan[local] = position < lineLength ? element(line, position) : uvec4(0);
+        barrier();
+
+        // inclusive scan of the chunk, log2(GROUP_SIZE) steps
+        for(int offset = 1; offset < GROUP_SIZE; offset <<= 1) {
+            uvec4 add = local >= offset ? scan[local - offset] : uvec4(0);
+            barrier();
+            scan[local] += add;
+            barrier();
+        }
+
+        if(position < lineLength) {
+            uvec4 prefix = carry + scan[local];
+            if(blurPass == 0) {
+                imageStore(img_rowPrefix, ivec2(position, line), prefix);
+            } else {
+                imageStore(img_columnPrefix, ivec2(line, position), prefix);
+            }
+        }
+        carry += scan[GROUP_SIZE - 1];
+        barrier();
+    }
+}
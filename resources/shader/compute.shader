@@ -1,11 +1,30 @@
 #version 430
-layout(local_size_x = 4, local_size_y = 4, local_size_z = 4) in;
+layout(local_size_x = 64, local_size_y = 1, local_size_z = 1) in;
 layout(rgba32f, binding = 0) uniform image2D img_output;
 
-layout(std430, binding = 2) buffer Pos {
-    vec4 agent[1000];
+// attraction of every pixel for species 0 (blue - red) written by attraction.shader, species 1 senses the negated value
+layout(r32f, binding = 2) readonly uniform image2D img_attraction;
+
+// one chunk of the agents as a structure of arrays like AgentStore: x column, y column, angle column, species column
+layout(std430, binding = 2) buffer Agents {
+    float agentData[];
+};
+
+// number of agents in the chunk, also the length of one column
+uniform int agentCount;
+
+// dispatch parameters of every chunk written by GpuSimulationBackend: the work group counts read by
+// glDispatchComputeIndirect, then the number of leading agents of the chunk that are simulated
+layout(std430, binding = 1) readonly buffer AgentParameters {
+    uvec4 chunkParameters[];
 };
 
+// index of the chunk in chunkParameters
+uniform int chunkIndex;
+
+// index of the first agent of the chunk in the whole simulation, the random numbers are keyed with the global index
+uniform int agentOffset;
+
 uniform float sensorAngleSpacing;
 
 uniform float deltaTime;
@@ -16,34 +35,171 @@ uniform float sensorOffsetDist;
 
 uniform int sensorSize;
 
+// 1 if the sensors read the summed area table built by integral.shader
+uniform int integralSensing;
+
+// summed area table of the attraction field as 16.16 fixed point, (width + 1) * (height + 1) entries
+layout(std430, binding = 4) buffer Integral {
+    int integral[];
+};
+
+// what happens at the map edge: 0 clamp and random heading, 1 clamp and reflect, 2 wrap around (torus)
+uniform int boundaryMode;
+
+const int BOUNDARY_REFLECT = 1;
+const int BOUNDARY_WRAP = 2;
+
+// 1 if the deposits are counted atomically in img_deposit and merged by deposit.shader
+uniform int atomicDeposit;
+
+// deposits of species 0 in the rows 0 to height - 1, of species 1 in the rows height to 2 * height - 1
+layout(r32ui, binding = 3) uniform uimage2D img_deposit;
+
+// every agent counts one deposit, deposit.shader multiplies the counts with the deposited amount
+const uint DEPOSIT_AMOUNT = 1u;
+
+// 1 if the tiles the agents deposit on are marked in tileMass for posProcessing.shader
+uniform int activeTiles;
+
+// offset of the flags of the front map in tileMass
+uniform int sourceTiles;
+
+// per 16x16 pixel tile flags of both trail maps, 1 if the tile may hold mass
+layout(std430, binding = 0) buffer TileMass {
+    uint tileMass[];
+};
+
 uniform int width;
 
 uniform int height;
 
-int blurSize = 1;
+// seed of the run and index of the current step, keys of the random numbers
+uniform int seed;
+
+uniform int stepIndex;
 
-float rand(vec2 co){
-    return fract(sin(dot(co.xy ,vec2(12.9898,78.233))) * 43758.5453);
+// lowbias32 integer hash, same as CounterRandom.mix()
+uint mixHash(uint value) {
+    value ^= value >> 16;
+    value *= 0x7FEB352Du;
+    value ^= value >> 15;
+    value *= 0x846CA68Bu;
+    value ^= value >> 16;
+    return value;
 }
 
-uint hash(uint state) {
-    state ^= 2747636419u;
-    state *= 2654435769u;
-    state ^= state >> 16;
-    state *= 2654435769u;
-    state ^= state >> 16;
-    state *= 2654435769u;
-    return state;
+// stateless random value in [0, 1) keyed by (seed, agent id, step, counter), same as CounterRandom.nextFloat()
+float counterRandom(uint id, uint counter) {
+    uint hash = mixHash(uint(seed) ^ 0x9E3779B9u);
+    hash = mixHash(hash ^ id);
+    hash = mixHash(hash ^ uint(stepIndex));
+    hash = mixHash(hash ^ counter);
+    return float(hash >> 8) * (1.0 / 16777216.0);
 }
 
-float scaleRandom10(float random) {
-    return random/4294967295.0;
+// number of directions the headings are quantized to (power of two), 0 for continuous headings
+uniform int headingResolution;
+
+// unit direction of every quantized heading, written by GpuSimulationBackend from HeadingTable
+layout(std430, binding = 5) buffer Headings {
+    vec2 headingDirections[];
+};
+
+// headings per radian, HeadingTable.getScale() so both backends round the same products
+uniform float headingScale;
+
+// rounds halves up like Math.round on the cpu, round() leaves the direction of halves to the implementation
+int roundHalfUp(float value) {
+    float whole = floor(value);
+    return int(whole) + (value - whole >= 0.5 ? 1 : 0);
+}
+
+// index of the quantized heading closest to an angle, HeadingTable.index()
+int headingIndex(float angle) {
+    return roundHalfUp(angle * headingScale) & (headingResolution - 1);
+}
+
+// direction of an angle, read from the table if the headings are quantized
+vec2 direction(float angle, int headingOffset) {
+    if(headingResolution > 0)
+    {
+        return headingDirections[(headingIndex(angle) + headingOffset) & (headingResolution - 1)];
+    }
+    return vec2(cos(angle), sin(angle));
+}
+
+// sum of the summed area table over a window, the window is clipped to the map
+float integralSum(ivec2 low, ivec2 high) {
+    low = max(low, ivec2(0));
+    high = min(high, ivec2(width - 1, height - 1));
+    if(low.x > high.x || low.y > high.y)
+    {
+        return 0;
+    }
+    int stride = width + 1;
+    int windowSum = integral[(high.y + 1) * stride + high.x + 1]
+                  - integral[low.y * stride + high.x + 1]
+                  - integral[(high.y + 1) * stride + low.x]
+                  + integral[low.y * stride + low.x];
+    return float(windowSum) / 65536.0;
 }
 
-float sense(vec4 agentT, float sensorAngleSpacing) {
-    float sensorAngle = agentT.z + sensorAngleSpacing;
-    vec2 sensorDir = vec2(cos(sensorAngle), sin(sensorAngle));
+// sensor window on the torus: the positions are wrapped instead of checked, the summed area table
+// is read for the up to four parts the map edges split the window into
+// value moved into [0, size) on the torus. % is undefined for negative operands, so it only sees the magnitude
+int wrapIndex(int value, int size) {
+    int remainder = abs(value) % size;
+    return value >= 0 || remainder == 0 ? remainder : size - remainder;
+}
+
+float senseWrapped(ivec2 sensorCentre) {
+    ivec2 size = ivec2(width, height);
+    // the corner of the window may lie any distance outside of the map, the sensor offset is not limited
+    ivec2 low = ivec2(wrapIndex(sensorCentre.x - sensorSize, width), wrapIndex(sensorCentre.y - sensorSize, height));
+
+    if(integralSensing == 1)
+    {
+        ivec2 high = low + 2 * sensorSize;
+        ivec2 wrapped = min(high - size, low - 1);
+        ivec2 end = min(high, size - 1);
+        float value = integralSum(low, end)
+                    + integralSum(ivec2(0, low.y), ivec2(wrapped.x, end.y))
+                    + integralSum(ivec2(low.x, 0), ivec2(end.x, wrapped.y))
+                    + integralSum(ivec2(0), wrapped);
+        return value;
+    }
+
+    float sum = 0;
+    for(int offsetX = 0; offsetX <= 2 * sensorSize; offsetX++)
+    {
+        // a select instead of a modulo, the sample is at most one map width past the edge
+        int sampleX = low.x + offsetX;
+        sampleX -= sampleX >= width ? width : 0;
+        for(int offsetY = 0; offsetY <= 2 * sensorSize; offsetY++)
+        {
+            int sampleY = low.y + offsetY;
+            sampleY -= sampleY >= height ? height : 0;
+            sum += imageLoad(img_attraction, ivec2(sampleX, sampleY)).x;
+        }
+    }
+    return sum;
+}
+
+float sense(vec4 agentT, vec2 sensorDir) {
     ivec2 sensorCentre = ivec2(agentT.xy + sensorDir * sensorOffsetDist);
+
+    if(boundaryMode == BOUNDARY_WRAP)
+    {
+        float value = senseWrapped(sensorCentre);
+        return agentT.w == 0 ? value : -value;
+    }
+
+    if(integralSensing == 1)
+    {
+        float value = integralSum(sensorCentre - sensorSize, sensorCentre + sensorSize);
+        return agentT.w == 0 ? value : -value;
+    }
+
     float sum = 0;
 
     for(int offsetX = -sensorSize; offsetX <= sensorSize; offsetX++)
@@ -54,91 +210,122 @@ float sense(vec4 agentT, float sensorAngleSpacing) {
 
             if (pos.x >= 0 && pos.x < width && pos.y >= 0 && pos.y < height)
             {
-                if(agentT.w == 0)
-                {
-                    sum += imageLoad(img_output,pos).z - imageLoad(img_output,pos).x;
-                }
-                else
-                {
-                    sum += imageLoad(img_output,pos).x - imageLoad(img_output,pos).z;
-                }
-
+                sum += imageLoad(img_attraction,pos).x;
             }
         }
     }
-    return sum;
+    return agentT.w == 0 ? sum : -sum;
 }
 
 void main() {
 
-    uvec3 size = gl_NumWorkGroups * gl_WorkGroupSize;
-
-    uint id =   gl_GlobalInvocationID.z * size.x * size.y +
-                gl_GlobalInvocationID.y * size.x +
-                gl_GlobalInvocationID.x;
+    // the dispatch is rounded up to whole work groups
+    uint id = gl_GlobalInvocationID.x;
 
+    // the parked agents behind the active ones are not touched
+    if(id >= chunkParameters[chunkIndex].w) {
+        return;
+    }
 
+    vec4 agent = vec4(agentData[id], agentData[agentCount + id], agentData[2 * agentCount + id], agentData[3 * agentCount + id]);
 
 
-    uint random = hash(uint(agent[id].y) * width + uint(agent[id].x) + hash(id));
+    // with quantized headings the sensor spacing is a whole number of headings added to the forward heading,
+    // HeadingTable.steps(). continuous headings carry the spacing in the angle instead
+    int sensorSteps = roundHalfUp(sensorAngleSpacing * headingScale);
+    bool quantized = headingResolution > 0;
 
-    float weightForward = sense(agent[id], 0);
-    float weigthLeft = sense(agent[id], sensorAngleSpacing);
-    float weigthRight = sense(agent[id], -sensorAngleSpacing);
+    float weightForward = sense(agent, direction(agent.z, 0));
+    float weigthLeft = sense(agent, quantized ? direction(agent.z, sensorSteps) : direction(agent.z + sensorAngleSpacing, 0));
+    float weigthRight = sense(agent, quantized ? direction(agent.z, -sensorSteps) : direction(agent.z - sensorAngleSpacing, 0));
 
-    float randomSteerStrength = scaleRandom10(random);
+    float randomSteerStrength = counterRandom(uint(agentOffset) + id, 0u);
 
-    if(weightForward > weigthLeft && weightForward > weigthRight)
-    {
-        agent[id].z += 0;
-    }
-    else if (weightForward < weigthLeft && weightForward < weigthRight)
-    {
-        agent[id].z += (randomSteerStrength - 0.5f) * 2 * turnSpeed * deltaTime;
-    }
-    else if (weigthRight > weigthLeft)
-    {
-        agent[id].z -= randomSteerStrength * turnSpeed * deltaTime;
-    }
-    else if (weigthRight < weigthLeft)
+    // the heading stays if the forward sensor is the strongest
+    if(weightForward <= weigthLeft || weightForward <= weigthRight)
     {
-        agent[id].z += randomSteerStrength * turnSpeed * deltaTime;
+        if (weightForward < weigthLeft && weightForward < weigthRight)
+        {
+            agent.z += (randomSteerStrength - 0.5f) * 2 * turnSpeed * deltaTime;
+        }
+        else if (weigthRight > weigthLeft)
+        {
+            agent.z -= randomSteerStrength * turnSpeed * deltaTime;
+        }
+        else if (weigthRight < weigthLeft)
+        {
+            agent.z += randomSteerStrength * turnSpeed * deltaTime;
+        }
     }
 
 
 
 
 
-    vec2 direction = vec2(cos(agent[id].z),sin(agent[id].z));
-    vec2 newPos = vec2(agent[id].x,agent[id].y) + direction;
+    vec2 newPos = vec2(agent.x,agent.y) + direction(agent.z, 0);
 
 
-    if(newPos.x < 0 || newPos.x >= width || newPos.y < 0 || newPos.y >= height) {
+    if(boundaryMode == BOUNDARY_WRAP) {
+        // mod() is x - y * floor(x / y), a value just below 0 can round up to the size, the bits
+        // of the size minus one are the largest float below it
+        vec2 size = vec2(width, height);
+        newPos = min(mod(newPos, size), uintBitsToFloat(floatBitsToUint(size) - 1u));
+    }
+    else if(newPos.x < 0 || newPos.x >= width || newPos.y < 0 || newPos.y >= height) {
+        if(boundaryMode == BOUNDARY_REFLECT) {
+            if(newPos.x < 0 || newPos.x >= width) {
+                agent.z = 3.14159265 - agent.z;
+            }
+            if(newPos.y < 0 || newPos.y >= height) {
+                agent.z = -agent.z;
+            }
+        }
+        else {
+            agent.z = randomSteerStrength * 2 * 3.14159;
+        }
         newPos.x = min(width - 1, max(0, newPos.x));
         newPos.y = min(height - 1, max(0, newPos.y));
-        agent[id].z = scaleRandom10(random) * 2 * 3.14159;
+    }
 
+    agentData[id] = newPos.x;
+    agentData[agentCount + id] = newPos.y;
+    agentData[2 * agentCount + id] = agent.z;
 
+    if(activeTiles == 1)
+    {
+        tileMass[sourceTiles + (int(newPos.y) / 16) * ((width + 15) / 16) + int(newPos.x) / 16] = 1u;
     }
 
-    agent[id].x = newPos.x;
-    agent[id].y = newPos.y;
-
+    if(atomicDeposit == 1)
+    {
+        imageAtomicAdd(img_deposit, ivec2(newPos.x, newPos.y) + ivec2(0, int(agent.w) * height), DEPOSIT_AMOUNT);
+        return;
+    }
 
     vec4 oldCol = imageLoad(img_output, ivec2(newPos.x,newPos.y));
 
     vec4 newCol;
 
     // output to a specific pixel in the image
-    if( agent[id].w == 0) {
+#ifdef RED_BLUE_LAYOUT
+    // two channel map: red in x, blue in y, green is derived when the map is shown
+    if( agent.w == 0) {
+        newCol = vec4(oldCol.x, min(0.8, oldCol.y + 0.05), 0, 1);
+    }
+    else
+    {
+        newCol = vec4(min(1,oldCol.x + 0.05), oldCol.y, 0, 1);
+    }
+#else
+    if( agent.w == 0) {
         newCol = vec4(oldCol.x, min(1,oldCol.y + 0.05), min(0.8, oldCol.z + 0.05),1);
     }
     else
     {
         newCol = vec4(min(1,oldCol.x + 0.05), min(1,oldCol.y + 0.05),oldCol.z,1);
     }
+#endif
 
     imageStore(img_output, ivec2(newPos.x,newPos.y), newCol);
 
 }
-
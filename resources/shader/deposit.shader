@@ -0,0 +1,35 @@
+#version 430
+layout(local_size_x = 16, local_size_y = 16, local_size_z = 1) in;
+layout(rgba32f, binding = 0) uniform image2D img_output;
+
+// number of deposits of the agent step, DEPOSIT_AMOUNT of compute.shader per agent.
+// species 0 in the rows 0 to height - 1, species 1 in the rows height to 2 * height - 1. cleared after merging for the next step
+layout(r32ui, binding = 3) uniform uimage2D img_deposit;
+
+uniform int width;
+uniform int height;
+
+void main() {
+    ivec2 id = ivec2(gl_GlobalInvocationID.xy);
+    if(id.x >= width || id.y >= height) {
+        return;
+    }
+
+    uint species0 = imageLoad(img_deposit, id).x;
+    uint species1 = imageLoad(img_deposit, id + ivec2(0, height)).x;
+    if((species0 | species1) == 0u) {
+        return;
+    }
+    imageStore(img_deposit, id, uvec4(0u));
+    imageStore(img_deposit, id + ivec2(0, height), uvec4(0u));
+
+    // the clamps are monotone, adding the sums once gives the same result as the single deposits of compute.shader
+    float amount0 = float(species0) * 0.05;
+    float amount1 = float(species1) * 0.05;
+    vec4 oldCol = imageLoad(img_output, id);
+#ifdef RED_BLUE_LAYOUT
+    imageStore(img_output, id, vec4(min(1, oldCol.x + amount1), min(0.8, oldCol.y + amount0), 0, 1));
+#else
+    imageStore(img_output, id, vec4(min(1, oldCol.x + amount1), min(1, oldCol.y + amount0 + amount1), min(0.8, oldCol.z + amount0), 1));
+#endif
+}
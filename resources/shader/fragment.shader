@@ -4,6 +4,12 @@
 
 uniform sampler2D texture_sampler;
 
+// 1 if the trail map only stores red and blue (in r and g), green is derived from them
+uniform int redBlueLayout;
+
+// evaporation of green relative to red and to blue, green decays from 1 that much faster than the channels it follows
+uniform vec2 greenDecay;
+
 in vec4 mvPos;
 in vec2 outTexCoord;
 
@@ -13,5 +19,13 @@ out vec4 fragColor;
 void main()
 {
 
-    fragColor = texture(texture_sampler,outTexCoord);
+    vec4 color = texture(texture_sampler,outTexCoord);
+    if(redBlueLayout == 1)
+    {
+        // green of the rgba layout is close to 1 where either species deposited recently and
+        // falls off with its own evaporation speed, estimated from the distance of red and blue to their caps
+        float green = max(1 - greenDecay.x * (1 - color.r), 1 - greenDecay.y * (0.8 - color.g));
+        color = vec4(color.r, clamp(green, 0, 1), color.g, 1);
+    }
+    fragColor = color;
 }
\ No newline at end of file
@@ -0,0 +1,51 @@
+#version 430
+layout(local_size_x = 64, local_size_y = 1, local_size_z = 1) in;
+layout(r32f, binding = 2) readonly uniform image2D img_attraction;
+
+// summed area table of the attraction field (blue - red) as 16.16 fixed point with a zero row and column in front,
+// (width + 1) * (height + 1) entries. the sums wrap, window differences stay exact (see IntegralImage.java)
+layout(std430, binding = 4) buffer Integral {
+    int integral[];
+};
+
+uniform int width;
+uniform int height;
+
+// 0: prefix sums along the rows, one invocation per row
+// 1: prefix sums down the columns, one invocation per column
+uniform int integralPass;
+
+const float SCALE = 65536.0;
+
+void main() {
+    int id = int(gl_GlobalInvocationID.x);
+    int stride = width + 1;
+
+    if(integralPass == 0) {
+        if(id >= height) {
+            return;
+        }
+        if(id == 0) {
+            for(int x = 0; x <= width; x++) {
+                integral[x] = 0;
+            }
+        }
+        int row = (id + 1) * stride;
+        int sum = 0;
+        integral[row] = 0;
+        for(int x = 0; x < width; x++) {
+            sum += int(round(imageLoad(img_attraction, ivec2(x, id)).x * SCALE));
+            integral[row + x + 1] = sum;
+        }
+    } else {
+        if(id >= width) {
+            return;
+        }
+        int column = id + 1;
+        int sum = 0;
+        for(int y = 1; y <= height; y++) {
+            sum += integral[y * stride + column];
+            integral[y * stride + column] = sum;
+        }
+    }
+}
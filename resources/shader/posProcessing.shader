@@ -1,6 +1,11 @@
 #version 430
 layout(local_size_x = 16, local_size_y = 16, local_size_z = 1) in;
-layout(rgba32f, binding = 0) uniform image2D img_output;
+// the trail map is double buffered: read the result of the agent step, write the other texture
+layout(rgba32f, binding = 1) readonly uniform image2D img_input;
+layout(rgba32f, binding = 0) writeonly uniform image2D img_output;
+
+// column prefix sums of the horizontal window sums of the input, written by blur.shader
+layout(SUM_FORMAT, binding = 4) readonly uniform uimage2D img_columnPrefix;
 
 uniform int width;
 uniform int height;
@@ -8,39 +13,82 @@ uniform int height;
 uniform float deltaTime;
 uniform float diffuseSpeed;
 uniform vec4 evaporateSpeed;
+uniform int blurSize;
 
-int blurSize = 1;
+// 1 if the work groups of tiles that hold no mass skip the diffusion, the tile of a work group is 16x16 pixels
+uniform int activeTiles;
 
-void main() {
-    ivec3 id = ivec3(gl_GlobalInvocationID);
-    if(id.x < 0 || id.x >= width || id.y < 0 || id.y >= height) {
-        return;
-    }
+// offsets of the flags of the source and of the target map in tileMass
+uniform int sourceTiles;
+uniform int targetTiles;
 
-    vec4 originalValue = imageLoad(img_output,id.xy);
+// per tile flags of both maps, 1 if the tile may hold mass. set by the deposits and by this shader
+layout(std430, binding = 0) buffer TileMass {
+    uint tileMass[];
+};
 
-    vec4 sum = vec4(0,0,0,0);
-    for(int offsetX = -blurSize; offsetX<=blurSize;offsetX++)
-    {
-        for(int offsetY = -blurSize; offsetY <= blurSize; offsetY++)
-        {
-            int sampleX = id.x + offsetX;
-            int sampleY = id.y + offsetY;
-
-            if(sampleX >= 0 && sampleX < width && sampleY >= 0 && sampleY < height)
-            {
-                sum += imageLoad(img_output,ivec2(sampleX,sampleY));
+shared uint groupMass;
+
+// true if the tile or a tile within the blur border holds mass in the source, or if the target tile still has to be cleared
+bool tileActive(ivec2 tile, ivec2 tiles) {
+    if(tileMass[targetTiles + tile.y * tiles.x + tile.x] != 0u) {
+        return true;
+    }
+    int border = (blurSize + 15) / 16;
+    for(int y = max(0, tile.y - border); y <= min(tiles.y - 1, tile.y + border); y++) {
+        for(int x = max(0, tile.x - border); x <= min(tiles.x - 1, tile.x + border); x++) {
+            if(tileMass[sourceTiles + y * tiles.x + x] != 0u) {
+                return true;
             }
         }
     }
+    return false;
+}
+
+// blur, mix and evaporate of one pixel
+vec4 diffuse(ivec2 id) {
+    vec4 originalValue = imageLoad(img_input,id);
+
+    // the window is the difference of two prefix sums, the rows outside of the map count as zero
+    uvec4 window = imageLoad(img_columnPrefix, ivec2(id.x, min(id.y + blurSize, height - 1)));
+    if(id.y - blurSize - 1 >= 0)
+    {
+        window -= imageLoad(img_columnPrefix, ivec2(id.x, id.y - blurSize - 1));
+    }
+    vec4 sum = vec4(window) / 65536.0;
 
     vec4 blurResult = (sum * 1) / pow(blurSize * 2 + 1,2);
 
     vec4 diffuseValue = mix(originalValue, blurResult, diffuseSpeed * deltaTime);
 
-    vec4 diffuseAndEvaporatedValue = max(vec4(0,0,0,0), diffuseValue - evaporateSpeed * deltaTime);
+    return max(vec4(0,0,0,0), diffuseValue - evaporateSpeed * deltaTime);
+}
 
-    imageStore(img_output, id.xy, diffuseAndEvaporatedValue);
+void main() {
+    ivec3 id = ivec3(gl_GlobalInvocationID);
+    ivec2 tile = ivec2(gl_WorkGroupID.xy);
+    ivec2 tiles = ivec2((width + 15) / 16, (height + 15) / 16);
+
+    // the whole work group takes the same branch, the target tile of a skipped group is already zero
+    bool active = activeTiles == 0 || tileActive(tile, tiles);
+
+    if(gl_LocalInvocationIndex == 0u) {
+        groupMass = 0u;
+    }
+    barrier();
 
+    if(active && id.x < width && id.y < height) {
+        vec4 diffuseAndEvaporatedValue = diffuse(id.xy);
 
-}
\ No newline at end of file
+        imageStore(img_output, id.xy, diffuseAndEvaporatedValue);
+
+        if(diffuseAndEvaporatedValue != vec4(0)) {
+            groupMass = 1u;
+        }
+    }
+
+    barrier();
+    if(activeTiles == 1 && active && gl_LocalInvocationIndex == 0u) {
+        tileMass[targetTiles + tile.y * tiles.x + tile.x] = groupMass;
+    }
+}
@@ -0,0 +1,149 @@
+#version 430
+layout(local_size_x = 256, local_size_y = 1, local_size_z = 1) in;
+
+// least significant digit radix sort of the agents by the z-order code of their 4x4 pixel cell, same as MortonSort.java.
+// every work group owns a block of 256 (key, agent index) pairs
+
+// agents in the current order, structure of arrays like in compute.shader
+layout(std430, binding = 2) buffer Agents {
+    float agentData[];
+};
+
+// agents in the sorted order, written by the gather pass
+layout(std430, binding = 6) buffer SortedAgents {
+    float sortedAgentData[];
+};
+
+// (morton code, agent index) pairs read by a pass
+layout(std430, binding = 0) buffer PairsIn {
+    uvec2 pairsIn[];
+};
+
+// (morton code, agent index) pairs written by a pass
+layout(std430, binding = 1) buffer PairsOut {
+    uvec2 pairsOut[];
+};
+
+// digit counts of every block in digit major order (digit * blocks + block), turned into target offsets by the scan
+layout(std430, binding = 7) buffer Histogram {
+    uint histogram[];
+};
+
+// number of agents sorted, the parked agents behind them keep their slots
+uniform int agentCount;
+
+// length of one column of the agent buffers, the number of agents in the chunk
+uniform int columnLength;
+
+// 0: write the pairs of the agents to pairsOut
+// 1: count the digits of every block
+// 2: exclusive prefix sum over the histogram, dispatched with one work group
+// 3: scatter the pairs of every block to pairsOut
+// 4: gather the agents in the order of pairsIn into sortedAgentData
+uniform int sortPass;
+
+// position of the sorted digit in the code
+uniform int radixShift;
+
+const int CELL_SHIFT = 2;
+const uint RADIX = 16u;
+const uint BLOCK = 256u;
+
+shared uint digitCounts[RADIX];
+shared uint blockDigits[BLOCK];
+shared uint chunkSums[BLOCK];
+
+uint spreadBits(uint value) {
+    value &= 0xFFFFu;
+    value = (value | (value << 8)) & 0x00FF00FFu;
+    value = (value | (value << 4)) & 0x0F0F0F0Fu;
+    value = (value | (value << 2)) & 0x33333333u;
+    value = (value | (value << 1)) & 0x55555555u;
+    return value;
+}
+
+uint digitOf(uint key) {
+    return (key >> uint(radixShift)) & (RADIX - 1u);
+}
+
+void main() {
+    uint id = gl_GlobalInvocationID.x;
+    uint localId = gl_LocalInvocationID.x;
+    uint count = uint(agentCount);
+    uint blocks = (count + BLOCK - 1u) / BLOCK;
+
+    if(sortPass == 0) {
+        if(id < count) {
+            uint cellX = uint(agentData[id]) >> CELL_SHIFT;
+            uint cellY = uint(agentData[uint(columnLength) + id]) >> CELL_SHIFT;
+            pairsOut[id] = uvec2(spreadBits(cellX) | (spreadBits(cellY) << 1), id);
+        }
+    } else if(sortPass == 1) {
+        if(localId < RADIX) {
+            digitCounts[localId] = 0u;
+        }
+        barrier();
+        if(id < count) {
+            atomicAdd(digitCounts[digitOf(pairsIn[id].x)], 1u);
+        }
+        barrier();
+        if(localId < RADIX) {
+            histogram[localId * blocks + gl_WorkGroupID.x] = digitCounts[localId];
+        }
+    } else if(sortPass == 2) {
+        uint total = RADIX * blocks;
+        uint chunk = (total + BLOCK - 1u) / BLOCK;
+        uint from = min(total, localId * chunk);
+        uint to = min(total, from + chunk);
+
+        uint sum = 0u;
+        for(uint i = from; i < to; i++) {
+            sum += histogram[i];
+        }
+        chunkSums[localId] = sum;
+        barrier();
+        if(localId == 0u) {
+            uint running = 0u;
+            for(uint i = 0u; i < BLOCK; i++) {
+                uint chunkSum = chunkSums[i];
+                chunkSums[i] = running;
+                running += chunkSum;
+            }
+        }
+        barrier();
+        uint running = chunkSums[localId];
+        for(uint i = from; i < to; i++) {
+            uint digitCount = histogram[i];
+            histogram[i] = running;
+            running += digitCount;
+        }
+    } else if(sortPass == 3) {
+        uvec2 pair = uvec2(0u);
+        uint digit = RADIX;
+        if(id < count) {
+            pair = pairsIn[id];
+            digit = digitOf(pair.x);
+        }
+        blockDigits[localId] = digit;
+        barrier();
+        if(id < count) {
+            // rank among the pairs of the block with the same digit in front of this one keeps the sort stable
+            uint rank = 0u;
+            for(uint i = 0u; i < localId; i++) {
+                if(blockDigits[i] == digit) {
+                    rank++;
+                }
+            }
+            pairsOut[histogram[digit * blocks + gl_WorkGroupID.x] + rank] = pair;
+        }
+    } else {
+        // dispatched over the whole column, the parked agents are copied to the same slot
+        uint length = uint(columnLength);
+        if(id < length) {
+            uint source = id < count ? pairsIn[id].y : id;
+            for(uint column = 0u; column < 4u; column++) {
+                sortedAgentData[column * length + id] = agentData[column * length + source];
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package benchmark;
+
+import engine.simulation.ActiveTiles;
+import engine.simulation.AgentSpawner;
+import engine.simulation.AgentStore;
+import engine.simulation.CpuSimulationBackend;
+import engine.simulation.SimulationSettings;
+import engine.simulation.SpawnDistribution;
+import engine.simulation.TrailPrecision;
+
+import java.util.Arrays;
+
+/**
+ * runs a sparse simulation (few agents spawned in a small ring on a 4k map) with and without active tiles,
+ * reports the time per step and the share of active tiles, and checks that both runs end with the same trail map.
+ * Run with --add-modules jdk.incubator.vector -Xmx2g
+ */
+public class ActiveTilesBenchmark {
+
+    private static final int WIDTH = 3840;
+    private static final int HEIGHT = 2160;
+
+    private static final int AGENTS = 50000;
+
+    private static final int STEPS = 200;
+
+    private static final int REPORT_INTERVAL = 50;
+
+    public static void main(String[] args) {
+        for(TrailPrecision precision : new TrailPrecision[] {TrailPrecision.FLOAT32, TrailPrecision.UNORM16}) {
+            Object reference = null;
+            for(boolean activeTiles : new boolean[] {false, true}) {
+                SimulationSettings settings = new SimulationSettings(WIDTH, HEIGHT);
+                settings.setTrailPrecision(precision);
+                settings.setActiveTiles(activeTiles);
+                AgentStore agents = new AgentSpawner().spawn(AGENTS, SpawnDistribution.byName("ring", WIDTH, HEIGHT), settings.getSeed());
+                CpuSimulationBackend backend = new CpuSimulationBackend();
+                backend.init(settings, agents);
+
+                long start = System.nanoTime();
+                for(int step = 1; step <= STEPS; step++) {
+                    backend.step(settings);
+                    if(step % REPORT_INTERVAL == 0) {
+                        double time = (System.nanoTime() - start) / 1e6 / REPORT_INTERVAL;
+                        ActiveTiles tiles = backend.getActiveTiles();
+                        String share = tiles != null ? String.format(", %5.1f%% of the tiles active", tiles.countActive() * 100.0 / tiles.getTileCount()) : "";
+                        System.out.printf("%-8s active tiles %-5s steps %3d-%3d %8.2f ms/step%s%n",
+                                precision, activeTiles, step - REPORT_INTERVAL + 1, step, time, share);
+                        start = System.nanoTime();
+                    }
+                }
+
+                Object trailMap = precision.isShort() ? backend.getShortTrailMap().clone() : backend.getTrailMap().clone();
+                if(reference == null) {
+                    reference = trailMap;
+                } else {
+                    boolean same = precision.isShort() ? Arrays.equals((short[]) reference, (short[]) trailMap) : Arrays.equals((float[]) reference, (float[]) trailMap);
+                    System.out.println(precision + " trail maps " + (same ? "identical" : "DIFFERENT"));
+                }
+
+                backend.cleanup();
+                agents.free();
+            }
+        }
+    }
+}
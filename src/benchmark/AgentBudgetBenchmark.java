@@ -0,0 +1,68 @@
+package benchmark;
+
+import engine.simulation.AgentBudget;
+import engine.simulation.AgentSpawner;
+import engine.simulation.AgentStore;
+import engine.simulation.CpuSimulationBackend;
+import engine.simulation.SimulationSettings;
+import engine.simulation.SpawnDistribution;
+
+/**
+ * runs the java backend with the agent budget and prints how the active agents and the step time
+ * settle at the target. The target can be given in milliseconds as the first argument.
+ * At the end the agents that were parked the whole run are compared with their spawn state.
+ * Run with --add-modules jdk.incubator.vector
+ */
+public class AgentBudgetBenchmark {
+
+    private static final int WIDTH = 960;
+    private static final int HEIGHT = 600;
+
+    private static final int AGENTS = 2000000;
+
+    private static final int STEPS = 200;
+
+    private static final int REPORT_INTERVAL = 16;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("workers: " + Runtime.getRuntime().availableProcessors());
+
+        float target = args.length > 0 ? Float.parseFloat(args[0]) : 100f;
+        SimulationSettings settings = new SimulationSettings(WIDTH, HEIGHT);
+        settings.setTargetStepTime(target);
+        AgentStore agents = new AgentSpawner().spawn(AGENTS, SpawnDistribution.byName(settings.getSpawnDistribution(), WIDTH, HEIGHT), settings.getSeed());
+        float[] spawnedX = new float[AGENTS];
+        agents.getX().get(0, spawnedX);
+
+        CpuSimulationBackend backend = new CpuSimulationBackend();
+        backend.init(settings, agents);
+        AgentBudget budget = new AgentBudget(settings.getMinAgents(), AGENTS, settings.getMinAgents());
+        backend.setActiveAgents(budget.getActiveAgents());
+
+        int mostActive = budget.getActiveAgents();
+        double reportTime = 0;
+        for(int step = 0; step < STEPS; step++) {
+            long start = System.nanoTime();
+            backend.step(settings);
+            double time = (System.nanoTime() - start) / 1e6;
+            reportTime += time;
+            if(budget.record(time, 1, target)) {
+                backend.setActiveAgents(budget.getActiveAgents());
+                mostActive = Math.max(mostActive, budget.getActiveAgents());
+            }
+            if((step + 1) % REPORT_INTERVAL == 0) {
+                System.out.printf("step %4d %10d active agents %8.2f ms/step (target %.1f)%n", step + 1, budget.getActiveAgents(), reportTime / REPORT_INTERVAL, target);
+                reportTime = 0;
+            }
+        }
+
+        boolean parkedUnchanged = true;
+        for(int id = mostActive; id < AGENTS; id++) {
+            parkedUnchanged &= agents.getX().get(id) == spawnedX[id];
+        }
+        System.out.println("agents never activated (" + (AGENTS - mostActive) + ") unchanged: " + parkedUnchanged);
+
+        backend.cleanup();
+        agents.free();
+    }
+}
@@ -0,0 +1,60 @@
+package benchmark;
+
+import engine.simulation.AgentSpawner;
+import engine.simulation.AgentStore;
+import engine.simulation.CpuSimulationBackend;
+import engine.simulation.SimulationSettings;
+import engine.simulation.SpawnDistribution;
+
+/**
+ * time of the java step per agent for growing agent counts, up to counts that do not fit into
+ * one 2 GB buffer as an interleaved store. The counts can be given as arguments.
+ * Run with --add-modules jdk.incubator.vector
+ */
+public class AgentCapacityBenchmark {
+
+    private static final int WIDTH = 1024;
+    private static final int HEIGHT = 1024;
+
+    private static final int[] COUNTS = {1000000, 10000000, 150000000};
+
+    private static final int WARMUP = 1;
+    private static final int STEPS = 3;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("workers: " + Runtime.getRuntime().availableProcessors());
+
+        int[] counts = COUNTS;
+        if(args.length > 0) {
+            counts = new int[args.length];
+            for(int i = 0; i < args.length; i++) {
+                counts[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        for(int count : counts) {
+            SimulationSettings settings = new SimulationSettings(WIDTH, HEIGHT);
+            settings.setSpawnDistribution("uniform");
+            long spawnStart = System.nanoTime();
+            AgentStore agents = new AgentSpawner().spawn(count, SpawnDistribution.byName(settings.getSpawnDistribution(), WIDTH, HEIGHT), settings.getSeed());
+            double spawnTime = (System.nanoTime() - spawnStart) / 1e6;
+            CpuSimulationBackend backend = new CpuSimulationBackend();
+            backend.init(settings, agents);
+
+            for(int i = 0; i < WARMUP; i++) {
+                backend.step(settings);
+            }
+            long start = System.nanoTime();
+            for(int i = WARMUP; i < STEPS; i++) {
+                backend.step(settings);
+            }
+            double time = (System.nanoTime() - start) / 1e6 / (STEPS - WARMUP);
+
+            System.out.printf("%,12d agents %10.2f ms/step %7.1f ns/agent, spawned in %8.1f ms, %6.2f GB of agents%n",
+                    count, time, time * 1e6 / count, spawnTime, (double) count * AgentStore.COLUMNS * Float.BYTES / (1 << 30));
+
+            backend.cleanup();
+            agents.free();
+        }
+    }
+}
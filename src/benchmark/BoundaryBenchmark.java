@@ -0,0 +1,67 @@
+package benchmark;
+
+import engine.simulation.AgentSpawner;
+import engine.simulation.AgentStore;
+import engine.simulation.BoundaryMode;
+import engine.simulation.CpuSimulationBackend;
+import engine.simulation.SimulationSettings;
+import engine.simulation.SpawnDistribution;
+
+import java.nio.FloatBuffer;
+
+/**
+ * time of the java step with the three boundary modes. Clamping checks every pixel of the sensor windows,
+ * wrapping splits the windows at the map edges and sums the parts without checks.
+ * Agents spawned uniformly put many of the windows close to the edges.
+ * Run with --add-modules jdk.incubator.vector
+ */
+public class BoundaryBenchmark {
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1200;
+
+    private static final int AGENTS = 1000000;
+
+    private static final int WARMUP = 5;
+    private static final int STEPS = 50;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("workers: " + Runtime.getRuntime().availableProcessors());
+
+        for(String distribution : new String[] {"ring", "uniform"}) {
+            System.out.println(distribution + " spawn");
+            for(BoundaryMode mode : BoundaryMode.values()) {
+                SimulationSettings settings = new SimulationSettings(WIDTH, HEIGHT);
+                settings.setBoundaryMode(mode);
+                AgentStore agents = new AgentSpawner().spawn(AGENTS, SpawnDistribution.byName(distribution, WIDTH, HEIGHT), settings.getSeed());
+                CpuSimulationBackend backend = new CpuSimulationBackend();
+                backend.init(settings, agents);
+
+                for(int i = 0; i < WARMUP; i++) {
+                    backend.step(settings);
+                }
+                long start = System.nanoTime();
+                for(int i = WARMUP; i < STEPS; i++) {
+                    backend.step(settings);
+                }
+                double time = (System.nanoTime() - start) / 1e6 / (STEPS - WARMUP);
+
+                // agents on the outermost columns and rows, the clamping modes pile them up there
+                FloatBuffer agentX = agents.getX();
+                FloatBuffer agentY = agents.getY();
+                int onEdge = 0;
+                for(int id = 0; id < agents.getCount(); id++) {
+                    int x = (int) agentX.get(id);
+                    int y = (int) agentY.get(id);
+                    if(x == 0 || x == WIDTH - 1 || y == 0 || y == HEIGHT - 1) {
+                        onEdge++;
+                    }
+                }
+                System.out.printf("%-16s %8.2f ms/step, %6d agents on the edge%n", mode, time, onEdge);
+
+                backend.cleanup();
+                agents.free();
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package benchmark;
+
+import engine.simulation.AgentStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * checks the round trip of the agent checkpoints: the columns read back have to be bit identical
+ * to the written ones, a checkpoint overwritten by a smaller store has to hold only the smaller one,
+ * and reading a checkpoint into a store of a different agent count has to fail.
+ * Prints the mismatches and exits with 1 if there are any
+ */
+public class CheckpointCheck {
+
+    private static final int[] AGENTS = {1, 1000, 1000003};
+
+    public static void main(String[] args) throws IOException {
+        Path file = Files.createTempFile("agents", ".checkpoint");
+        Random random = new Random(1);
+        int mismatches = 0;
+        try {
+            for(int count : AGENTS) {
+                AgentStore written = new AgentStore(count);
+                for(int i = 0; i < count; i++) {
+                    written.set(i, random.nextFloat() * 1920, random.nextFloat() * 1200, Float.intBitsToFloat(random.nextInt()), random.nextInt(2));
+                }
+                // a bigger checkpoint first, writing has to truncate it
+                AgentStore bigger = new AgentStore(count + 7);
+                bigger.writeCheckpoint(file);
+                bigger.free();
+                written.writeCheckpoint(file);
+
+                AgentStore read = new AgentStore(count);
+                read.readCheckpoint(file);
+                int agent = firstDifference(written, read);
+                if(agent >= 0) {
+                    System.out.println(count + " agents: agent " + agent + " differs after the round trip");
+                    mismatches++;
+                }
+
+                AgentStore wrongCount = new AgentStore(count + 1);
+                try {
+                    wrongCount.readCheckpoint(file);
+                    System.out.println(count + " agents: reading into a store of " + (count + 1) + " agents did not fail");
+                    mismatches++;
+                } catch(IOException expected) {
+                    // the size check rejects the file
+                }
+
+                written.free();
+                read.free();
+                wrongCount.free();
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        System.out.println("checked " + AGENTS.length + " checkpoints, " + mismatches + " mismatches");
+        if(mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return index of the first agent whose columns differ, -1 if all are the same
+     */
+    private static int firstDifference(AgentStore first, AgentStore second) {
+        for(int i = 0; i < first.getCount(); i++) {
+            if(Float.floatToRawIntBits(first.getX().get(i)) != Float.floatToRawIntBits(second.getX().get(i))
+                    || Float.floatToRawIntBits(first.getY().get(i)) != Float.floatToRawIntBits(second.getY().get(i))
+                    || Float.floatToRawIntBits(first.getAngle().get(i)) != Float.floatToRawIntBits(second.getAngle().get(i))
+                    || Float.floatToRawIntBits(first.getSpecies().get(i)) != Float.floatToRawIntBits(second.getSpecies().get(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,62 @@
+package benchmark;
+
+import engine.simulation.AgentSpawner;
+import engine.simulation.AgentStore;
+import engine.simulation.CpuSimulationBackend;
+import engine.simulation.DepositMode;
+import engine.simulation.SimulationSettings;
+import engine.simulation.SpawnDistribution;
+
+import java.util.Arrays;
+
+/**
+ * compares the deposit modes of the java simulation step at different agent densities:
+ * the racy read and write, private per thread buffers and atomic adds.
+ * The two lossless modes have to produce the same trail map.
+ * Run with --add-modules jdk.incubator.vector -Xmx2g
+ */
+public class DepositBenchmark {
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1200;
+
+    private static final int[] AGENTS = {250000, 1000000, 4000000};
+
+    private static final int WARMUP = 2;
+    private static final int STEPS = 10;
+
+    public static void main(String[] args) {
+        System.out.println("workers: " + Runtime.getRuntime().availableProcessors());
+
+        for(int agentCount : AGENTS) {
+            float[] privateResult = null;
+            for(DepositMode mode : DepositMode.values()) {
+                SimulationSettings settings = new SimulationSettings(WIDTH, HEIGHT);
+                settings.setDepositMode(mode);
+                AgentStore agents = new AgentSpawner().spawn(agentCount, SpawnDistribution.byName(settings.getSpawnDistribution(), WIDTH, HEIGHT), settings.getSeed());
+                CpuSimulationBackend backend = new CpuSimulationBackend();
+                backend.init(settings, agents);
+
+                for(int i = 0; i < WARMUP; i++) {
+                    backend.step(settings);
+                }
+                long start = System.nanoTime();
+                for(int i = WARMUP; i < STEPS; i++) {
+                    backend.step(settings);
+                }
+                double time = (System.nanoTime() - start) / 1e6 / (STEPS - WARMUP);
+
+                String check = "";
+                if(mode == DepositMode.PRIVATE_BUFFERS) {
+                    privateResult = backend.getTrailMap().clone();
+                } else if(mode == DepositMode.ATOMIC) {
+                    check = Arrays.equals(privateResult, backend.getTrailMap()) ? ", same as private buffers" : ", DIFFERS from private buffers";
+                }
+                System.out.printf("%8d agents %-16s %8.2f ms/step%s%n", agentCount, mode, time, check);
+
+                backend.cleanup();
+                agents.free();
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package benchmark;
+
+import engine.simulation.DiffuseKernel;
+
+import java.util.Random;
+
+/**
+ * compares the single threaded throughput of the scalar and the vectorized
+ * diffuse kernel on a 1920x1200 rgba map for several blur sizes against
+ * the naive loop of posProcessing.shader, which sums the whole box of every pixel.
+ * The target of the vectorized kernel is 4x the naive 3x3 loop (blurSize 1).
+ * run with --add-modules jdk.incubator.vector, otherwise both kernels are scalar
+ */
+public class DiffuseBenchmark {
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1200;
+
+    private static final int WARMUP = 20;
+    private static final int ITERATIONS = 50;
+
+    private static final int[] BLUR_SIZES = {1, 4, 16};
+
+    public static void main(String[] args) {
+        float[] source = new float[WIDTH * HEIGHT * 4];
+        float[] target = new float[WIDTH * HEIGHT * 4];
+        Random random = new Random(1);
+        for(int i = 0; i < source.length; i++) {
+            source[i] = random.nextFloat();
+        }
+        float[] evaporate = {0.005f, 0.03f, 0.005f, 0.05f};
+
+        DiffuseKernel scalar = DiffuseKernel.scalar();
+        DiffuseKernel selected = DiffuseKernel.create();
+        System.out.println("selected kernel: " + selected.getClass().getSimpleName());
+
+        for(int blurSize : BLUR_SIZES) {
+            double naiveTime = measureNaive(source, target, blurSize, evaporate);
+            double scalarTime = measure(scalar, source, target, blurSize, evaporate);
+            double selectedTime = measure(selected, source, target, blurSize, evaporate);
+            System.out.printf("blurSize %2d: naive %9.3f ms, scalar %8.3f ms, selected %8.3f ms, selected vs naive %6.2fx, vs scalar %5.2fx%n",
+                    blurSize, naiveTime, scalarTime, selectedTime, naiveTime / selectedTime, scalarTime / selectedTime);
+        }
+    }
+
+    /**
+     * @return average time of one full map pass of the naive loop in milliseconds
+     */
+    private static double measureNaive(float[] source, float[] target, int blurSize, float[] evaporate) {
+        int iterations = Math.max(1, ITERATIONS / (blurSize * blurSize));
+        for(int i = 0; i < Math.max(1, WARMUP / (blurSize * blurSize)); i++) {
+            naive(source, target, blurSize, evaporate);
+        }
+        long start = System.nanoTime();
+        for(int i = 0; i < iterations; i++) {
+            naive(source, target, blurSize, evaporate);
+        }
+        return (System.nanoTime() - start) / 1e6 / iterations;
+    }
+
+    /**
+     * the loop of posProcessing.shader in plain java: sums the box of every pixel, all four channels
+     * of a sample at once like the vec4 of the shader, samples outside of the map count as zero
+     */
+    private static void naive(float[] source, float[] target, int blurSize, float[] evaporate) {
+        float inverseArea = 1f / ((blurSize * 2 + 1) * (blurSize * 2 + 1));
+        float diffuseWeight = 1f;
+        for(int y = 0; y < HEIGHT; y++) {
+            for(int x = 0; x < WIDTH; x++) {
+                float sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+                for(int offsetY = -blurSize; offsetY <= blurSize; offsetY++) {
+                    for(int offsetX = -blurSize; offsetX <= blurSize; offsetX++) {
+                        int sampleX = x + offsetX;
+                        int sampleY = y + offsetY;
+                        if(sampleX >= 0 && sampleX < WIDTH && sampleY >= 0 && sampleY < HEIGHT) {
+                            int sample = (sampleY * WIDTH + sampleX) * 4;
+                            sum0 += source[sample];
+                            sum1 += source[sample + 1];
+                            sum2 += source[sample + 2];
+                            sum3 += source[sample + 3];
+                        }
+                    }
+                }
+                int index = (y * WIDTH + x) * 4;
+                target[index] = naiveChannel(source[index], sum0 * inverseArea, diffuseWeight, evaporate[0]);
+                target[index + 1] = naiveChannel(source[index + 1], sum1 * inverseArea, diffuseWeight, evaporate[1]);
+                target[index + 2] = naiveChannel(source[index + 2], sum2 * inverseArea, diffuseWeight, evaporate[2]);
+                target[index + 3] = naiveChannel(source[index + 3], sum3 * inverseArea, diffuseWeight, evaporate[3]);
+            }
+        }
+    }
+
+    /**
+     * @return mixed and evaporated value of one channel
+     */
+    private static float naiveChannel(float originalValue, float blurResult, float diffuseWeight, float evaporate) {
+        float diffuseValue = originalValue + (blurResult - originalValue) * diffuseWeight;
+        return Math.max(0, diffuseValue - evaporate);
+    }
+
+    /**
+     * @return average time of one full map pass in milliseconds
+     */
+    private static double measure(DiffuseKernel kernel, float[] source, float[] target, int blurSize, float[] evaporate) {
+        for(int i = 0; i < WARMUP; i++) {
+            kernel.diffuseRows(source, target, WIDTH, HEIGHT, 4, 0, HEIGHT, blurSize, 1f, evaporate);
+        }
+        long start = System.nanoTime();
+        for(int i = 0; i < ITERATIONS; i++) {
+            kernel.diffuseRows(source, target, WIDTH, HEIGHT, 4, 0, HEIGHT, blurSize, 1f, evaporate);
+        }
+        return (System.nanoTime() - start) / 1e6 / ITERATIONS;
+    }
+}
@@ -0,0 +1,171 @@
+package benchmark;
+
+import engine.simulation.DiffuseKernel;
+import engine.simulation.DiffusionStage;
+import engine.simulation.SimulationSettings;
+import engine.simulation.TrailLayout;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * checks the diffuse kernels against the naive loop of posProcessing.shader, which sums the whole box
+ * of every pixel in double precision. Covers the scalar and the selected float kernel on full rows,
+ * the tiled float diffusion and the 16 bit diffusion with several tile sizes, both trail layouts
+ * and blur sizes from 0 to larger than the tiles. The float results have to match within FLOAT_TOLERANCE,
+ * the 16 bit results within one step of 65535.
+ * Run it with and without --add-modules jdk.incubator.vector to check the vector and the scalar kernels.
+ * Prints the mismatches and exits with 1 if there are any
+ */
+public class DiffuseKernelCheck {
+
+    private static final int WIDTH = 203;
+    private static final int HEIGHT = 67;
+
+    private static final int[] BLUR_SIZES = {0, 1, 2, 3, 5, 16, 40};
+
+    private static final int[] TILE_SIZES = {0, 16, 50};
+
+    /** largest difference of a float result to the reference, the sliding window sums collect rounding errors */
+    private static final double FLOAT_TOLERANCE = 1e-5;
+
+    /** largest difference of a 16 bit result to the rounded reference */
+    private static final int SHORT_TOLERANCE = 1;
+
+    private static final int ONE = 0xFFFF;
+
+    public static void main(String[] args) {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        DiffuseKernel scalar = DiffuseKernel.scalar();
+        DiffuseKernel selected = DiffuseKernel.create();
+        DiffusionStage stage = new DiffusionStage(pool, selected);
+        System.out.println("selected kernel: " + selected.getClass().getSimpleName());
+
+        Random random = new Random(1);
+        int mismatches = 0;
+        int checked = 0;
+        for(TrailLayout layout : TrailLayout.values()) {
+            int channels = layout.getChannels();
+            int length = WIDTH * HEIGHT * channels;
+            float[] source = new float[length];
+            short[] shortSource = new short[length];
+            for(int i = 0; i < length; i++) {
+                // some empty pixels, like the trail map away from the agents
+                source[i] = random.nextInt(4) == 0 ? 0 : random.nextFloat();
+                shortSource[i] = (short) Math.round(source[i] * ONE);
+            }
+
+            for(int blurSize : BLUR_SIZES) {
+                SimulationSettings settings = new SimulationSettings(WIDTH, HEIGHT);
+                settings.setTrailLayout(layout);
+                settings.setBlurSize(blurSize);
+                settings.setDiffuseSpeed(0.7f);
+                float diffuseWeight = settings.getDiffuseSpeed() * settings.getDeltaTime();
+                float[] evaporate = layout.evaporation(settings.getEvaporateSpeed(), settings.getDeltaTime());
+                float[] shortEvaporate = layout.evaporation(settings.getEvaporateSpeed(), settings.getDeltaTime() * ONE);
+
+                double[] reference = reference(source, channels, blurSize, diffuseWeight, evaporate, 1);
+                double[] shortReference = reference(toDouble(shortSource), channels, blurSize, diffuseWeight, shortEvaporate, ONE);
+
+                float[] target = new float[length];
+                scalar.diffuseRows(source, target, WIDTH, HEIGHT, channels, 0, HEIGHT, blurSize, diffuseWeight, evaporate);
+                mismatches += compare("scalar rows", layout, blurSize, reference, target);
+                selected.diffuseRows(source, target, WIDTH, HEIGHT, channels, 0, HEIGHT, blurSize, diffuseWeight, evaporate);
+                mismatches += compare("selected rows", layout, blurSize, reference, target);
+                checked += 2;
+
+                for(int tileSize : TILE_SIZES) {
+                    settings.setTileSize(tileSize);
+                    target = new float[length];
+                    stage.run(source, target, settings);
+                    mismatches += compare("stage tiles " + tileSize, layout, blurSize, reference, target);
+
+                    short[] shortTarget = new short[length];
+                    stage.run(shortSource, shortTarget, settings);
+                    mismatches += compareShort("16 bit stage tiles " + tileSize, layout, blurSize, shortReference, shortTarget);
+                    checked += 2;
+                }
+            }
+        }
+        pool.shutdown();
+        System.out.println("checked " + checked + " diffused maps, " + mismatches + " mismatches");
+        if(mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * posProcessing.shader in double precision: box sum with samples outside of the map as zero,
+     * mix, evaporation and the clamp to [0, one]
+     *
+     * @param source map to diffuse
+     * @param channels number of channels per pixel
+     * @param blurSize blur radius
+     * @param diffuseWeight diffuseSpeed * deltaTime
+     * @param evaporate evaporation of the channels, four entries
+     * @param one value standing for 1, the upper clamp of the 16 bit maps
+     * @return diffused map
+     */
+    private static double[] reference(double[] source, int channels, int blurSize, float diffuseWeight, float[] evaporate, int one) {
+        double[] target = new double[source.length];
+        double area = (blurSize * 2 + 1) * (blurSize * 2 + 1);
+        for(int y = 0; y < HEIGHT; y++) {
+            for(int x = 0; x < WIDTH; x++) {
+                for(int channel = 0; channel < channels; channel++) {
+                    double sum = 0;
+                    for(int sampleY = Math.max(0, y - blurSize); sampleY <= Math.min(HEIGHT - 1, y + blurSize); sampleY++) {
+                        for(int sampleX = Math.max(0, x - blurSize); sampleX <= Math.min(WIDTH - 1, x + blurSize); sampleX++) {
+                            sum += source[(sampleY * WIDTH + sampleX) * channels + channel];
+                        }
+                    }
+                    int index = (y * WIDTH + x) * channels + channel;
+                    double value = source[index] + (sum / area - source[index]) * diffuseWeight - evaporate[channel];
+                    target[index] = one == 1 ? Math.max(0, value) : Math.max(0, Math.min(one, value));
+                }
+            }
+        }
+        return target;
+    }
+
+    private static double[] reference(float[] source, int channels, int blurSize, float diffuseWeight, float[] evaporate, int one) {
+        double[] values = new double[source.length];
+        for(int i = 0; i < source.length; i++) {
+            values[i] = source[i];
+        }
+        return reference(values, channels, blurSize, diffuseWeight, evaporate, one);
+    }
+
+    private static double[] toDouble(short[] source) {
+        double[] values = new double[source.length];
+        for(int i = 0; i < source.length; i++) {
+            values[i] = source[i] & ONE;
+        }
+        return values;
+    }
+
+    /**
+     * @return 1 if a value of the float map differs from the reference by more than FLOAT_TOLERANCE
+     */
+    private static int compare(String name, TrailLayout layout, int blurSize, double[] reference, float[] result) {
+        for(int i = 0; i < reference.length; i++) {
+            if(Math.abs(result[i] - reference[i]) > FLOAT_TOLERANCE) {
+                System.out.println(name + " " + layout + " blurSize " + blurSize + " index " + i + ": " + result[i] + ", expected " + reference[i]);
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return 1 if a value of the 16 bit map differs from the rounded reference by more than SHORT_TOLERANCE
+     */
+    private static int compareShort(String name, TrailLayout layout, int blurSize, double[] reference, short[] result) {
+        for(int i = 0; i < reference.length; i++) {
+            if(Math.abs((result[i] & ONE) - Math.round(reference[i])) > SHORT_TOLERANCE) {
+                System.out.println(name + " " + layout + " blurSize " + blurSize + " index " + i + ": " + (result[i] & ONE) + ", expected " + reference[i]);
+                return 1;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,99 @@
+package benchmark;
+
+import engine.simulation.AgentSpawner;
+import engine.simulation.AgentStore;
+import engine.simulation.CpuSimulationBackend;
+import engine.simulation.SimulationSettings;
+import engine.simulation.SpawnDistribution;
+
+/**
+ * compares the two pass step of the java backend (attraction field, agents, diffusion) with the fused step
+ * that diffuses the map tile by tile and moves the agents of a tile right after it.
+ * reports the time per step, the bytes the passes of the step stream through memory, the bytes the fused
+ * step saves and how much the trail maps of the two steps differ after the run. The second map size does not
+ * fit into the caches, there the saved bytes have the largest effect. Run with --add-modules jdk.incubator.vector -Xmx4g
+ */
+public class FusedStepBenchmark {
+
+    private static final int[][] SIZES = {{1920, 1200}, {4096, 4096}};
+
+    private static final int AGENTS = 1000000;
+
+    private static final int WARMUP = 3;
+    private static final int STEPS = 15;
+
+    public static void main(String[] args) {
+        for(int[] size : SIZES) {
+            for(int sortInterval : new int[] {0, 10}) {
+                System.out.println(size[0] + "x" + size[1] + ", sort interval " + sortInterval);
+                run(size[0], size[1], sortInterval);
+            }
+        }
+    }
+
+    private static void run(int width, int height, int sortInterval) {
+        float[] reference = null;
+        double twoPassBytes = 0;
+        for(boolean fused : new boolean[] {false, true}) {
+            SimulationSettings settings = new SimulationSettings(width, height);
+            settings.setFusedStep(fused);
+            settings.setSortInterval(sortInterval);
+            AgentStore agents = new AgentSpawner().spawn(AGENTS, SpawnDistribution.byName(settings.getSpawnDistribution(), width, height), settings.getSeed());
+            CpuSimulationBackend backend = new CpuSimulationBackend();
+            backend.init(settings, agents);
+
+            for(int i = 0; i < WARMUP; i++) {
+                backend.step(settings);
+            }
+            long start = System.nanoTime();
+            for(int i = 0; i < STEPS; i++) {
+                backend.step(settings);
+            }
+            double time = (System.nanoTime() - start) / 1e6 / STEPS;
+
+            double bytes = streamedBytes(fused, settings);
+            if(fused) {
+                System.out.printf("%-9s %8.2f ms/step, %7.1f MB streamed per step, %7.1f MB (%4.1f%%) saved%n", "fused", time,
+                        bytes / (1 << 20), (twoPassBytes - bytes) / (1 << 20), (twoPassBytes - bytes) * 100 / twoPassBytes);
+            } else {
+                twoPassBytes = bytes;
+                System.out.printf("%-9s %8.2f ms/step, %7.1f MB streamed per step%n", "two pass", time, bytes / (1 << 20));
+            }
+
+            float[] trailMap = backend.getTrailMap();
+            if(reference == null) {
+                reference = trailMap.clone();
+            } else {
+                double differenceSum = 0;
+                double referenceSum = 0;
+                for(int i = 0; i < trailMap.length; i++) {
+                    differenceSum += Math.abs(trailMap[i] - reference[i]);
+                    referenceSum += reference[i];
+                }
+                System.out.printf("mean abs difference of the fused map %.5f (%5.2f%% of the mean value)%n",
+                        differenceSum / trailMap.length, differenceSum * 100 / referenceSum);
+            }
+
+            backend.cleanup();
+            agents.free();
+        }
+    }
+
+    /**
+     * estimate of the bytes a step moves between memory and the caches. the map sized passes are counted
+     * once per read and once per write, the agents once per read and write of their columns.
+     * sensor reads and deposits are assumed to hit cache lines a pass already loaded
+     */
+    private static double streamedBytes(boolean fused, SimulationSettings settings) {
+        double pixels = (double) settings.getWidth() * settings.getHeight();
+        double map = pixels * settings.getTrailLayout().getChannels() * Float.BYTES;
+        double attraction = pixels * Float.BYTES;
+        double agentColumns = (double) AGENTS * (4 + 3) * Float.BYTES;
+        if(fused) {
+            // diffusion read and write, agent columns, tile of every agent, agent order
+            return 2 * map + agentColumns + 2.0 * AGENTS * Integer.BYTES * 2;
+        }
+        // attraction pass (map read, field write), agents sensing the field (read), diffusion read and write
+        return map + attraction + attraction + agentColumns + 2 * map;
+    }
+}
@@ -0,0 +1,74 @@
+package benchmark;
+
+import engine.simulation.AgentSpawner;
+import engine.simulation.AgentStore;
+import engine.simulation.CpuSimulationBackend;
+import engine.simulation.SimulationSettings;
+import engine.simulation.SpawnDistribution;
+
+/**
+ * compares the java agent step with continuous headings (cos and sin per sensor and move)
+ * against quantized headings read from the heading tables.
+ * Both runs start from the same agents and seed, the visual error is the difference
+ * of the trail maps after the last step. Run with --add-modules jdk.incubator.vector
+ */
+public class HeadingBenchmark {
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1200;
+
+    private static final int AGENTS = 1000000;
+
+    private static final int[] RESOLUTIONS = {0, 256, 1024, 4096};
+
+    private static final int WARMUP = 3;
+    private static final int STEPS = 100;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("workers: " + Runtime.getRuntime().availableProcessors());
+
+        float[] reference = null;
+        double referenceTime = 0;
+        for(int resolution : RESOLUTIONS) {
+            SimulationSettings settings = new SimulationSettings(WIDTH, HEIGHT);
+            settings.setHeadingResolution(resolution);
+            AgentStore agents = new AgentSpawner().spawn(AGENTS, SpawnDistribution.byName(settings.getSpawnDistribution(), WIDTH, HEIGHT), settings.getSeed());
+            CpuSimulationBackend backend = new CpuSimulationBackend();
+            backend.init(settings, agents);
+
+            for(int i = 0; i < WARMUP; i++) {
+                backend.step(settings);
+            }
+            long start = System.nanoTime();
+            for(int i = WARMUP; i < STEPS; i++) {
+                backend.step(settings);
+            }
+            double time = (System.nanoTime() - start) / 1e6 / (STEPS - WARMUP);
+
+            float[] trailMap = backend.getTrailMap();
+            if(resolution == 0) {
+                reference = trailMap.clone();
+                referenceTime = time;
+                System.out.printf("%-16s %8.2f ms/step%n", "continuous", time);
+            } else {
+                double errorSum = 0;
+                double referenceSum = 0;
+                int differing = 0;
+                for(int i = 0; i < trailMap.length; i++) {
+                    float error = Math.abs(trailMap[i] - reference[i]);
+                    errorSum += error;
+                    referenceSum += reference[i];
+                    if(error > 0.1f) {
+                        differing++;
+                    }
+                }
+                System.out.printf("%-16s %8.2f ms/step, %5.2fx, mean abs error %.5f (%5.2f%% of the mean value), %5.2f%% channels off by more than 0.1%n",
+                        resolution + " headings", time, referenceTime / time, errorSum / trailMap.length,
+                        errorSum * 100 / referenceSum, differing * 100.0 / trailMap.length);
+            }
+
+            backend.cleanup();
+            agents.free();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package benchmark;
+
+import engine.simulation.HeadingTable;
+
+import java.util.Random;
+
+/**
+ * checks that the heading and sensor indices of compute.shader match the ones of HeadingTable.
+ * The glsl index math is mirrored in java with the same float operations: the product with
+ * headingScale, floor and the comparison of the fraction. The angles cover random values,
+ * the boundaries between two headings and the floats next to them.
+ * Prints the mismatches and exits with 1 if there are any
+ */
+public class HeadingIndexCheck {
+
+    private static final int[] RESOLUTIONS = {256, 1024, 4096};
+
+    private static final float[] SENSOR_SPACINGS = {(float) (Math.PI / 4), (float) (Math.PI / 6), 0.3f, 1f};
+
+    private static final int RANDOM_ANGLES = 1000000;
+
+    public static void main(String[] args) {
+        Random random = new Random(1);
+        int mismatches = 0;
+        int checked = 0;
+        for(int resolution : RESOLUTIONS) {
+            HeadingTable table = new HeadingTable(resolution);
+            for(float spacing : SENSOR_SPACINGS) {
+                for(int i = 0; i < RANDOM_ANGLES; i++) {
+                    float angle = (random.nextFloat() * 2 - 1) * 64f;
+                    mismatches += check(table, angle, spacing);
+                    checked++;
+                }
+                // the boundaries between two headings, where the rounding direction decides
+                for(int heading = -2 * resolution; heading < 2 * resolution; heading++) {
+                    float boundary = (heading + 0.5f) / table.getScale();
+                    mismatches += check(table, boundary, spacing);
+                    mismatches += check(table, Math.nextUp(boundary), spacing);
+                    mismatches += check(table, Math.nextDown(boundary), spacing);
+                    checked += 3;
+                }
+            }
+        }
+        System.out.println("checked " + checked + " angles, " + mismatches + " mismatches");
+        if(mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param table heading table of the cpu backend
+     * @param angle agent angle
+     * @param spacing sensor angle spacing
+     * @return number of the forward, left and right sensor indices that differ
+     */
+    private static int check(HeadingTable table, float angle, float spacing) {
+        int mask = table.getResolution() - 1;
+        int cpuHeading = table.index(angle);
+        int cpuSteps = table.steps(spacing);
+
+        // compute.shader: headingIndex(agent.z) and roundHalfUp(sensorAngleSpacing * headingScale)
+        int gpuHeading = roundHalfUp(angle * table.getScale()) & mask;
+        int gpuSteps = roundHalfUp(spacing * table.getScale());
+
+        int mismatches = 0;
+        int[] offsets = {0, 1, -1};
+        for(int offset : offsets) {
+            int cpu = (cpuHeading + offset * cpuSteps) & mask;
+            int gpu = (gpuHeading + offset * gpuSteps) & mask;
+            if(cpu != gpu) {
+                if(mismatches == 0) {
+                    System.out.println("resolution " + table.getResolution() + " angle " + angle + " spacing " + spacing
+                            + " sensor " + offset + ": cpu " + cpu + " gpu " + gpu);
+                }
+                mismatches++;
+            }
+        }
+        return mismatches;
+    }
+
+    /**
+     * roundHalfUp() of compute.shader
+     *
+     * @param value value to round
+     * @return nearest integer, halves rounded up
+     */
+    private static int roundHalfUp(float value) {
+        float whole = (float) Math.floor(value);
+        return (int) whole + (value - whole >= 0.5f ? 1 : 0);
+    }
+}
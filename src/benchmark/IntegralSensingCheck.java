@@ -0,0 +1,109 @@
+package benchmark;
+
+import engine.simulation.AgentSpawner;
+import engine.simulation.AgentStore;
+import engine.simulation.BoundaryMode;
+import engine.simulation.CpuSimulationBackend;
+import engine.simulation.SimulationSettings;
+import engine.simulation.SpawnDistribution;
+import engine.simulation.TrailLayout;
+
+import java.util.Random;
+
+/**
+ * checks the window sums of the integral sensing against the loop over the sensor window, for every boundary mode
+ * including the windows WRAP splits at the map edges. Two backends run from the same agents, one with integral sensing,
+ * and before every step both trail maps get the same random red and blue values that are multiples of 1/256.
+ * The fixed point table and the float loop hold those sums exactly, so both backends have to steer every agent
+ * the same way and the agent columns have to stay bit identical.
+ * The map is smaller than the largest sensor windows. Prints the mismatches and exits with 1 if there are any
+ */
+public class IntegralSensingCheck {
+
+    private static final int WIDTH = 97;
+    private static final int HEIGHT = 61;
+
+    private static final int AGENTS = 20000;
+
+    private static final int STEPS = 5;
+
+    private static final int[] SENSOR_SIZES = {0, 1, 3, 40};
+
+    public static void main(String[] args) {
+        Random random = new Random(1);
+        int mismatches = 0;
+        int checked = 0;
+        for(TrailLayout layout : TrailLayout.values()) {
+            for(BoundaryMode boundaryMode : BoundaryMode.values()) {
+                for(int sensorSize : SENSOR_SIZES) {
+                    SimulationSettings settings = new SimulationSettings(WIDTH, HEIGHT);
+                    settings.setTrailLayout(layout);
+                    settings.setBoundaryMode(boundaryMode);
+                    settings.setSensorSize(sensorSize);
+                    AgentStore loopAgents = new AgentSpawner().spawn(AGENTS, SpawnDistribution.uniform(WIDTH, HEIGHT), settings.getSeed());
+                    AgentStore integralAgents = new AgentSpawner().spawn(AGENTS, SpawnDistribution.uniform(WIDTH, HEIGHT), settings.getSeed());
+                    CpuSimulationBackend loop = new CpuSimulationBackend(2);
+                    CpuSimulationBackend integral = new CpuSimulationBackend(2);
+                    loop.init(settings, loopAgents);
+                    integral.init(settings, integralAgents);
+
+                    for(int step = 0; step < STEPS; step++) {
+                        fill(loop.getTrailMap(), integral.getTrailMap(), layout, random);
+                        settings.setIntegralSensing(false);
+                        loop.step(settings);
+                        settings.setIntegralSensing(true);
+                        integral.step(settings);
+                        checked++;
+
+                        int agent = firstDifference(loopAgents, integralAgents);
+                        if(agent >= 0) {
+                            System.out.println(layout + " " + boundaryMode + " sensorSize " + sensorSize + " step " + step
+                                    + ": agent " + agent + " differs");
+                            mismatches++;
+                            break;
+                        }
+                    }
+
+                    loop.cleanup();
+                    integral.cleanup();
+                    loopAgents.free();
+                    integralAgents.free();
+                }
+            }
+        }
+        System.out.println("checked " + checked + " steps, " + mismatches + " mismatches");
+        if(mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * writes the same random trail into both maps, red and blue are multiples of 1/256
+     */
+    private static void fill(float[] first, float[] second, TrailLayout layout, Random random) {
+        int channels = layout.getChannels();
+        int blueOffset = layout.getBlueOffset();
+        for(int pixel = 0; pixel < WIDTH * HEIGHT; pixel++) {
+            for(int channel = 0; channel < channels; channel++) {
+                float value = channel == 0 || channel == blueOffset ? random.nextInt(257) / 256f : random.nextFloat();
+                first[pixel * channels + channel] = value;
+                second[pixel * channels + channel] = value;
+            }
+        }
+    }
+
+    /**
+     * @return index of the first agent whose columns differ, -1 if all are the same
+     */
+    private static int firstDifference(AgentStore first, AgentStore second) {
+        for(int i = 0; i < first.getCount(); i++) {
+            if(Float.floatToRawIntBits(first.getX().get(i)) != Float.floatToRawIntBits(second.getX().get(i))
+                    || Float.floatToRawIntBits(first.getY().get(i)) != Float.floatToRawIntBits(second.getY().get(i))
+                    || Float.floatToRawIntBits(first.getAngle().get(i)) != Float.floatToRawIntBits(second.getAngle().get(i))
+                    || Float.floatToRawIntBits(first.getSpecies().get(i)) != Float.floatToRawIntBits(second.getSpecies().get(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,162 @@
+package benchmark;
+
+import engine.simulation.AgentSpawner;
+import engine.simulation.AgentStore;
+import engine.simulation.CpuSimulationBackend;
+import engine.simulation.DiffuseKernel;
+import engine.simulation.DiffusionStage;
+import engine.simulation.SimulationSettings;
+import engine.simulation.SpawnDistribution;
+import engine.simulation.TrailLayout;
+import org.joml.Vector2f;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * compares the java diffusion of rgba trail maps with red blue maps at 4k for both float and 16 bit storage,
+ * then runs the whole simulation with both layouts from the same agents and checks that red and blue are the same.
+ * The displayed images are compared too: the green of the red blue layout is estimated like fragment.shader does,
+ * both images are clamped to [0, 1] like the 8 bit framebuffer, and the difference of the colour channels is reported.
+ * Run with --add-modules jdk.incubator.vector -Xmx2g
+ */
+public class LayoutBenchmark {
+
+    private static final int DIFFUSION_WIDTH = 3840;
+    private static final int DIFFUSION_HEIGHT = 2160;
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1200;
+
+    private static final int AGENTS = 1000000;
+
+    private static final int WARMUP = 3;
+    private static final int ITERATIONS = 10;
+    private static final int STEPS = 50;
+
+    /** one step of an 8 bit colour channel */
+    private static final double DISPLAY_STEP = 1 / 255.0;
+
+    public static void main(String[] args) {
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        System.out.println("workers: " + pool.getParallelism());
+        DiffusionStage stage = new DiffusionStage(pool, DiffuseKernel.create());
+        for(TrailLayout layout : TrailLayout.values()) {
+            measureDiffusion(stage, layout);
+        }
+        pool.shutdown();
+        compareSimulation();
+    }
+
+    private static void measureDiffusion(DiffusionStage stage, TrailLayout layout) {
+        SimulationSettings settings = new SimulationSettings(DIFFUSION_WIDTH, DIFFUSION_HEIGHT);
+        settings.setTrailLayout(layout);
+        int length = DIFFUSION_WIDTH * DIFFUSION_HEIGHT * layout.getChannels();
+
+        float[] floatSource = new float[length];
+        float[] floatTarget = new float[length];
+        short[] shortSource = new short[length];
+        short[] shortTarget = new short[length];
+        Random random = new Random(1);
+        for(int i = 0; i < length; i++) {
+            floatSource[i] = random.nextFloat();
+            shortSource[i] = (short) Math.round(floatSource[i] * 65535);
+        }
+
+        for(int i = 0; i < WARMUP; i++) {
+            stage.run(floatSource, floatTarget, settings);
+        }
+        long start = System.nanoTime();
+        for(int i = 0; i < ITERATIONS; i++) {
+            stage.run(floatSource, floatTarget, settings);
+        }
+        double floatTime = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+
+        for(int i = 0; i < WARMUP; i++) {
+            stage.run(shortSource, shortTarget, settings);
+        }
+        start = System.nanoTime();
+        for(int i = 0; i < ITERATIONS; i++) {
+            stage.run(shortSource, shortTarget, settings);
+        }
+        double shortTime = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+
+        double megabytes = length * 2.0 / (1 << 20);
+        System.out.printf("diffusion %-8s float32 %8.2f ms, %6.0f MB read + written%n", layout, floatTime, megabytes * 4);
+        System.out.printf("diffusion %-8s unorm16 %8.2f ms, %6.0f MB read + written%n", layout, shortTime, megabytes * 2);
+    }
+
+    private static void compareSimulation() {
+        float[] reference = null;
+        for(TrailLayout layout : TrailLayout.values()) {
+            SimulationSettings settings = new SimulationSettings(WIDTH, HEIGHT);
+            settings.setTrailLayout(layout);
+            AgentStore agents = new AgentSpawner().spawn(AGENTS, SpawnDistribution.byName(settings.getSpawnDistribution(), WIDTH, HEIGHT), settings.getSeed());
+            CpuSimulationBackend backend = new CpuSimulationBackend();
+            backend.init(settings, agents);
+
+            long start = System.nanoTime();
+            for(int i = 0; i < STEPS; i++) {
+                backend.step(settings);
+            }
+            double time = (System.nanoTime() - start) / 1e6 / STEPS;
+
+            float[] trailMap = backend.getTrailMap();
+            if(layout == TrailLayout.RGBA) {
+                reference = trailMap.clone();
+                System.out.printf("simulation %-8s %8.2f ms/step%n", layout, time);
+            } else {
+                double maxDifference = 0;
+                for(int pixel = 0; pixel < WIDTH * HEIGHT; pixel++) {
+                    maxDifference = Math.max(maxDifference, Math.abs(trailMap[pixel * 2] - reference[pixel * 4]));
+                    maxDifference = Math.max(maxDifference, Math.abs(trailMap[pixel * 2 + 1] - reference[pixel * 4 + 2]));
+                }
+                System.out.printf("simulation %-8s %8.2f ms/step, max red/blue difference to rgba %.8f%n", layout, time, maxDifference);
+                compareDisplay(reference, trailMap, TrailLayout.greenDecay(settings.getEvaporateSpeed()));
+            }
+
+            backend.cleanup();
+            agents.free();
+        }
+    }
+
+    /**
+     * compares the displayed colours of the two layouts
+     *
+     * @param rgba trail map of the rgba layout
+     * @param redBlue trail map of the red blue layout
+     * @param greenDecay uniform of fragment.shader
+     */
+    private static void compareDisplay(float[] rgba, float[] redBlue, Vector2f greenDecay) {
+        double differenceSum = 0;
+        double maxDifference = 0;
+        long differentPixels = 0;
+        for(int pixel = 0; pixel < WIDTH * HEIGHT; pixel++) {
+            float red = redBlue[pixel * 2];
+            float blue = redBlue[pixel * 2 + 1];
+            // fragment.shader
+            float green = Math.max(1 - greenDecay.x * (1 - red), 1 - greenDecay.y * (0.8f - blue));
+            float[] estimated = {red, green, blue};
+
+            double pixelDifference = 0;
+            for(int channel = 0; channel < 3; channel++) {
+                double difference = Math.abs(clamp(estimated[channel]) - clamp(rgba[pixel * 4 + channel]));
+                differenceSum += difference;
+                pixelDifference = Math.max(pixelDifference, difference);
+            }
+            maxDifference = Math.max(maxDifference, pixelDifference);
+            if(pixelDifference > DISPLAY_STEP) {
+                differentPixels++;
+            }
+        }
+        System.out.printf("display  RED_BLUE vs RGBA: mean abs difference %.5f, max %.5f, %.2f%% of the pixels differ by more than 1/255%n",
+                differenceSum / (WIDTH * HEIGHT * 3), maxDifference, differentPixels * 100.0 / (WIDTH * HEIGHT));
+    }
+
+    /**
+     * @return value clamped to [0, 1] like the framebuffer does
+     */
+    private static float clamp(float value) {
+        return Math.max(0, Math.min(1, value));
+    }
+}
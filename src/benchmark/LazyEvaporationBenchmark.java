@@ -0,0 +1,61 @@
+package benchmark;
+
+import engine.simulation.AgentSpawner;
+import engine.simulation.AgentStore;
+import engine.simulation.CpuSimulationBackend;
+import engine.simulation.SimulationSettings;
+import engine.simulation.SpawnDistribution;
+import engine.simulation.TrailPrecision;
+
+import java.util.Arrays;
+
+/**
+ * runs a simulation without diffusion (evaporation only) on a 4k map with few agents,
+ * once with eager and once with lazy evaporation, reports the time per step and checks
+ * that both runs end with the same trail map. Run with --add-modules jdk.incubator.vector -Xmx2g
+ */
+public class LazyEvaporationBenchmark {
+
+    private static final int WIDTH = 3840;
+    private static final int HEIGHT = 2160;
+
+    private static final int AGENTS = 50000;
+
+    private static final int STEPS = 200;
+
+    public static void main(String[] args) {
+        for(TrailPrecision precision : new TrailPrecision[] {TrailPrecision.FLOAT32, TrailPrecision.UNORM16}) {
+            Object reference = null;
+            for(boolean lazyEvaporation : new boolean[] {false, true}) {
+                SimulationSettings settings = new SimulationSettings(WIDTH, HEIGHT);
+                settings.setTrailPrecision(precision);
+                settings.setDiffuseSpeed(0);
+                settings.setLazyEvaporation(lazyEvaporation);
+                AgentStore agents = new AgentSpawner().spawn(AGENTS, SpawnDistribution.byName("ring", WIDTH, HEIGHT), settings.getSeed());
+                CpuSimulationBackend backend = new CpuSimulationBackend();
+                backend.init(settings, agents);
+
+                long start = System.nanoTime();
+                for(int step = 0; step < STEPS; step++) {
+                    backend.step(settings);
+                }
+                double stepTime = (System.nanoTime() - start) / 1e6 / STEPS;
+
+                start = System.nanoTime();
+                Object trailMap = precision.isShort() ? backend.getShortTrailMap().clone() : backend.getTrailMap().clone();
+                double exportTime = (System.nanoTime() - start) / 1e6;
+                System.out.printf("%-8s lazy %-5s %8.2f ms/step, export %8.2f ms%n", precision, lazyEvaporation, stepTime, exportTime);
+
+                if(reference == null) {
+                    reference = trailMap;
+                } else {
+                    boolean same = precision.isShort() ? Arrays.equals((short[]) reference, (short[]) trailMap) : Arrays.equals((float[]) reference, (float[]) trailMap);
+                    System.out.println(precision + " trail maps " + (same ? "identical" : "DIFFERENT"));
+                }
+
+                backend.cleanup();
+                agents.free();
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package benchmark;
+
+import engine.simulation.AgentStore;
+import engine.simulation.MortonSort;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * checks the parallel radix sort of MortonSort against a stable sort of the agent indices by their morton code,
+ * computed here bit by bit. The angle column holds the original index of every agent, so the check also sees
+ * whether agents with the same code keep their order. The agents after the sorted count have to stay where they are.
+ * Prints the mismatches and exits with 1 if there are any
+ */
+public class MortonSortCheck {
+
+    /** map sizes, including ones that are not a power of two and a thin one */
+    private static final int[][] SIZES = {{1920, 1200}, {333, 77}, {4096, 16}};
+
+    private static final int[] AGENTS = {1, 1000, 300007};
+
+    public static void main(String[] args) {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        Random random = new Random(1);
+        int mismatches = 0;
+        int checked = 0;
+        for(int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            for(int count : AGENTS) {
+                for(int sortCount : new int[] {count, count / 2}) {
+                    AgentStore agents = new AgentStore(count);
+                    for(int i = 0; i < count; i++) {
+                        // few distinct cells on the small maps, so many agents share a code
+                        agents.set(i, random.nextFloat() * width, random.nextFloat() * height, i, random.nextInt(2));
+                    }
+                    float[][] before = columns(agents);
+
+                    Integer[] expected = new Integer[count];
+                    for(int i = 0; i < count; i++) {
+                        expected[i] = i;
+                    }
+                    // Arrays.sort of objects is stable
+                    Arrays.sort(expected, 0, sortCount, Comparator.comparingLong(i -> mortonCode(before[0][i], before[1][i])));
+
+                    MortonSort sort = new MortonSort(count, width, height);
+                    sort.sort(pool, agents, sortCount);
+                    float[][] after = columns(agents);
+                    sort.free();
+                    agents.free();
+
+                    checked++;
+                    for(int i = 0; i < count; i++) {
+                        int from = expected[i];
+                        boolean same = true;
+                        for(int column = 0; column < AgentStore.COLUMNS; column++) {
+                            same &= Float.floatToRawIntBits(after[column][i]) == Float.floatToRawIntBits(before[column][from]);
+                        }
+                        if(!same) {
+                            System.out.println(width + "x" + height + " " + count + " agents, " + sortCount + " sorted: position " + i
+                                    + " holds agent " + (int) after[2][i] + ", expected " + from);
+                            mismatches++;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        pool.shutdown();
+        System.out.println("checked " + checked + " sorts, " + mismatches + " mismatches");
+        if(mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return copies of the x, y, angle and species columns
+     */
+    private static float[][] columns(AgentStore agents) {
+        float[][] columns = new float[AgentStore.COLUMNS][agents.getCount()];
+        agents.getX().get(0, columns[0]);
+        agents.getY().get(0, columns[1]);
+        agents.getAngle().get(0, columns[2]);
+        agents.getSpecies().get(0, columns[3]);
+        return columns;
+    }
+
+    /**
+     * @return morton code of the cell of a position, x in the even bits
+     */
+    private static long mortonCode(float x, float y) {
+        int cellX = (int) x >> MortonSort.CELL_SHIFT;
+        int cellY = (int) y >> MortonSort.CELL_SHIFT;
+        long code = 0;
+        for(int bit = 0; bit < 16; bit++) {
+            code |= (long) ((cellX >> bit) & 1) << (2 * bit);
+            code |= (long) ((cellY >> bit) & 1) << (2 * bit + 1);
+        }
+        return code;
+    }
+}
@@ -0,0 +1,120 @@
+package benchmark;
+
+import engine.simulation.AgentSpawner;
+import engine.simulation.AgentStore;
+import engine.simulation.CpuSimulationBackend;
+import engine.simulation.DiffuseKernel;
+import engine.simulation.DiffusionStage;
+import engine.simulation.SimulationSettings;
+import engine.simulation.SpawnDistribution;
+import engine.simulation.TrailPrecision;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * compares the java diffusion on float trail maps with the integer diffusion on 16 bit maps at 4k,
+ * then runs the whole simulation with both precisions from the same agents and reports the difference
+ * of the trail maps. Run with --add-modules jdk.incubator.vector -Xmx2g
+ */
+public class PrecisionBenchmark {
+
+    private static final int DIFFUSION_WIDTH = 3840;
+    private static final int DIFFUSION_HEIGHT = 2160;
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1200;
+
+    private static final int AGENTS = 1000000;
+
+    private static final int WARMUP = 3;
+    private static final int ITERATIONS = 10;
+    private static final int STEPS = 50;
+
+    public static void main(String[] args) {
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        System.out.println("workers: " + pool.getParallelism());
+        measureDiffusion(pool);
+        pool.shutdown();
+        compareSimulation();
+    }
+
+    private static void measureDiffusion(ForkJoinPool pool) {
+        DiffusionStage stage = new DiffusionStage(pool, DiffuseKernel.create());
+        SimulationSettings settings = new SimulationSettings(DIFFUSION_WIDTH, DIFFUSION_HEIGHT);
+        int length = DIFFUSION_WIDTH * DIFFUSION_HEIGHT * 4;
+
+        float[] floatSource = new float[length];
+        float[] floatTarget = new float[length];
+        short[] shortSource = new short[length];
+        short[] shortTarget = new short[length];
+        Random random = new Random(1);
+        for(int i = 0; i < length; i++) {
+            floatSource[i] = random.nextFloat();
+            shortSource[i] = (short) Math.round(floatSource[i] * 65535);
+        }
+
+        for(int i = 0; i < WARMUP; i++) {
+            stage.run(floatSource, floatTarget, settings);
+        }
+        long start = System.nanoTime();
+        for(int i = 0; i < ITERATIONS; i++) {
+            stage.run(floatSource, floatTarget, settings);
+        }
+        double floatTime = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+
+        for(int i = 0; i < WARMUP; i++) {
+            stage.run(shortSource, shortTarget, settings);
+        }
+        start = System.nanoTime();
+        for(int i = 0; i < ITERATIONS; i++) {
+            stage.run(shortSource, shortTarget, settings);
+        }
+        double shortTime = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+
+        double maxError = 0;
+        for(int i = 0; i < length; i++) {
+            maxError = Math.max(maxError, Math.abs((shortTarget[i] & 0xFFFF) / 65535.0 - floatTarget[i]));
+        }
+
+        double megabytes = length * 2.0 / (1 << 20);
+        System.out.printf("diffusion %dx%d float32 %8.2f ms, %6.0f MB read + written%n", DIFFUSION_WIDTH, DIFFUSION_HEIGHT, floatTime, megabytes * 4);
+        System.out.printf("diffusion %dx%d unorm16 %8.2f ms, %6.0f MB read + written, %5.2fx, max error %.6f%n",
+                DIFFUSION_WIDTH, DIFFUSION_HEIGHT, shortTime, megabytes * 2, floatTime / shortTime, maxError);
+    }
+
+    private static void compareSimulation() {
+        float[] reference = null;
+        for(TrailPrecision precision : new TrailPrecision[] {TrailPrecision.FLOAT32, TrailPrecision.UNORM16}) {
+            SimulationSettings settings = new SimulationSettings(WIDTH, HEIGHT);
+            settings.setTrailPrecision(precision);
+            AgentStore agents = new AgentSpawner().spawn(AGENTS, SpawnDistribution.byName(settings.getSpawnDistribution(), WIDTH, HEIGHT), settings.getSeed());
+            CpuSimulationBackend backend = new CpuSimulationBackend();
+            backend.init(settings, agents);
+
+            long start = System.nanoTime();
+            for(int i = 0; i < STEPS; i++) {
+                backend.step(settings);
+            }
+            double time = (System.nanoTime() - start) / 1e6 / STEPS;
+
+            if(precision == TrailPrecision.FLOAT32) {
+                reference = backend.getTrailMap().clone();
+                System.out.printf("simulation %-8s %8.2f ms/step%n", precision, time);
+            } else {
+                short[] trailMap = backend.getShortTrailMap();
+                double errorSum = 0;
+                double referenceSum = 0;
+                for(int i = 0; i < trailMap.length; i++) {
+                    errorSum += Math.abs((trailMap[i] & 0xFFFF) / 65535.0 - reference[i]);
+                    referenceSum += reference[i];
+                }
+                System.out.printf("simulation %-8s %8.2f ms/step, mean abs difference %.5f (%5.2f%% of the mean value)%n",
+                        precision, time, errorSum / trailMap.length, errorSum * 100 / referenceSum);
+            }
+
+            backend.cleanup();
+            agents.free();
+        }
+    }
+}
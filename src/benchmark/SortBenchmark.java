@@ -0,0 +1,57 @@
+package benchmark;
+
+import engine.simulation.AgentSpawner;
+import engine.simulation.AgentStore;
+import engine.simulation.CpuSimulationBackend;
+import engine.simulation.SimulationSettings;
+import engine.simulation.SpawnDistribution;
+
+/**
+ * compares the java simulation step with agents in spawn order against agents
+ * sorted by their z-order cell every few steps. The agents are spread uniformly, so
+ * without sorting neighbouring agents in the buffer touch unrelated parts of the trail map.
+ * Run with --add-modules jdk.incubator.vector
+ */
+public class SortBenchmark {
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1200;
+
+    private static final int AGENTS = 2000000;
+
+    private static final int[] SORT_INTERVALS = {0, 20, 10, 5};
+
+    private static final int WARMUP = 5;
+    private static final int STEPS = 40;
+
+    public static void main(String[] args) {
+        System.out.println("workers: " + Runtime.getRuntime().availableProcessors());
+
+        double unsortedTime = 0;
+        for(int sortInterval : SORT_INTERVALS) {
+            SimulationSettings settings = new SimulationSettings(WIDTH, HEIGHT);
+            settings.setSortInterval(sortInterval);
+            AgentStore agents = new AgentSpawner().spawn(AGENTS, SpawnDistribution.uniform(WIDTH, HEIGHT), settings.getSeed());
+            CpuSimulationBackend backend = new CpuSimulationBackend();
+            backend.init(settings, agents);
+
+            for(int i = 0; i < WARMUP; i++) {
+                backend.step(settings);
+            }
+            long start = System.nanoTime();
+            for(int i = WARMUP; i < STEPS; i++) {
+                backend.step(settings);
+            }
+            double time = (System.nanoTime() - start) / 1e6 / (STEPS - WARMUP);
+
+            if(sortInterval == 0) {
+                unsortedTime = time;
+            }
+            System.out.printf("%-16s %8.2f ms/step, %5.2fx%n",
+                    sortInterval == 0 ? "unsorted" : "sort every " + sortInterval, time, unsortedTime / time);
+
+            backend.cleanup();
+            agents.free();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package benchmark;
+
+import engine.simulation.DiffuseKernel;
+import engine.simulation.DiffusionStage;
+import engine.simulation.SimulationSettings;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * compares the throughput of the java diffusion stage processing the map in full rows
+ * with the tiled processing at 4k and 8k map sizes, using all processors.
+ * the 8k maps need about 1.1 GB, run with -Xmx2g and --add-modules jdk.incubator.vector
+ */
+public class TiledDiffusionBenchmark {
+
+    private static final int[][] SIZES = {{3840, 2160}, {7680, 4320}};
+
+    private static final int[] TILE_SIZES = {0, 64, 128, 256};
+
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 10;
+
+    public static void main(String[] args) {
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        DiffusionStage stage = new DiffusionStage(pool, DiffuseKernel.create());
+        System.out.println("workers: " + pool.getParallelism());
+
+        for(int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            float[] source = new float[width * height * 4];
+            float[] target = new float[width * height * 4];
+            Random random = new Random(1);
+            for(int i = 0; i < source.length; i++) {
+                source[i] = random.nextFloat();
+            }
+
+            double rowTime = 0;
+            for(int tileSize : TILE_SIZES) {
+                SimulationSettings settings = new SimulationSettings(width, height);
+                settings.setTileSize(tileSize);
+                double time = measure(stage, source, target, settings);
+                if(tileSize == 0) {
+                    rowTime = time;
+                }
+                System.out.printf("%dx%d %-10s %8.2f ms, %7.1f Mpixel/s, %5.2fx%n",
+                        width, height, tileSize == 0 ? "rows" : "tile " + tileSize, time,
+                        width * (double) height / time / 1000, rowTime / time);
+            }
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * @return average time of one full map pass in milliseconds
+     */
+    private static double measure(DiffusionStage stage, float[] source, float[] target, SimulationSettings settings) {
+        for(int i = 0; i < WARMUP; i++) {
+            stage.run(source, target, settings);
+        }
+        long start = System.nanoTime();
+        for(int i = 0; i < ITERATIONS; i++) {
+            stage.run(source, target, settings);
+        }
+        return (System.nanoTime() - start) / 1e6 / ITERATIONS;
+    }
+}
@@ -4,6 +4,10 @@ package engine.general;
  * main engine class: contains the main loop and calls all
  * the necessary methods every frame for updating, rendering and
  * input handling.
+ *
+ * In the headless mode there is no window and no OpenGL context:
+ * the loop only calls the updates of an IHeadlessLogic back to back,
+ * without swapping buffers, polling events or waiting for the next frame
  */
 public class GameEngine implements Runnable{
 
@@ -24,15 +28,18 @@ public class GameEngine implements Runnable{
     @SuppressWarnings("WeakerAccess")
     public static final int TARGET_UPS = 30;
 
-    /** window used*/
+    /** window used, null in the headless mode */
     private final Window window;
 
     /**timer of loop times*/
     private final Timer timer;
 
-    /** interface implemented by the game class */
+    /** interface implemented by the game class, null in the headless mode */
     private final IGameLogic gameLogic;
 
+    /** interface implemented by the headless program, null if a window is used */
+    private final IHeadlessLogic headlessLogic;
+
     /** values needed for time calculations */
     private float accumulator;
     @SuppressWarnings("FieldCanBeLocal")
@@ -53,6 +60,19 @@ public class GameEngine implements Runnable{
     public GameEngine(String windowTitle, int width, int height, boolean vSync, IGameLogic gameLogic) {
         window = new Window(windowTitle,width,height,vSync,this);
         this.gameLogic = gameLogic;
+        this.headlessLogic = null;
+        timer = new Timer();
+    }
+
+    /**
+     * constructor of the headless mode, no window is created
+     *
+     * @param headlessLogic the program
+     */
+    public GameEngine(IHeadlessLogic headlessLogic) {
+        window = null;
+        this.gameLogic = null;
+        this.headlessLogic = headlessLogic;
         timer = new Timer();
     }
 
@@ -66,6 +86,11 @@ public class GameEngine implements Runnable{
     @Override
     public void run() {
         try{
+            if(headlessLogic != null){
+                headlessLogic.init();
+                headlessLoop();
+                return;
+            }
             init();
             gameLoop();
         }catch (Exception e){
@@ -108,6 +133,16 @@ public class GameEngine implements Runnable{
         }
     }
 
+    /**
+     * loop of the headless mode: updates back to back until the program is finished
+     */
+    private void headlessLoop(){
+        timer.init();
+        while (!headlessLogic.isFinished()){
+            headlessLogic.update(timer.getElapsedTime());
+        }
+    }
+
     /**
      * action performed every frame
      */
@@ -180,6 +215,10 @@ public class GameEngine implements Runnable{
      * calls the cleanup method of the program
      */
     private void cleanup(){
-        gameLogic.cleanup();
+        if(headlessLogic != null){
+            headlessLogic.cleanup();
+        } else {
+            gameLogic.cleanup();
+        }
     }
 }
@@ -0,0 +1,32 @@
+package engine.general;
+
+/**
+ * Interface implemented by programs that run in the headless mode of the GameEngine:
+ * no window, no OpenGL context, no input and no rendering
+ */
+public interface IHeadlessLogic {
+
+    /**
+     * method to perform actions that have to happen before the first update
+     *
+     * @throws Exception if initialization fails
+     */
+    void init() throws Exception;
+
+    /**
+     * called back to back as fast as possible, every call should do one unit of work
+     *
+     * @param interval time since the last update in seconds
+     */
+    void update(float interval);
+
+    /**
+     * @return true once the work is done, the engine then stops the loop
+     */
+    boolean isFinished();
+
+    /**
+     * should contain the cleanup for all the resource used
+     */
+    void cleanup();
+}
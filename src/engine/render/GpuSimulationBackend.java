@@ -0,0 +1,790 @@
+package engine.render;
+
+import engine.general.Resources;
+import engine.items.Texture;
+import engine.simulation.AgentStore;
+import engine.simulation.DepositMode;
+import engine.simulation.HeadingTable;
+import engine.simulation.IntegralImage;
+import engine.simulation.MortonSort;
+import engine.simulation.SimulationBackend;
+import engine.simulation.SimulationSettings;
+import engine.simulation.TrailLayout;
+import engine.simulation.TrailPrecision;
+
+import org.joml.Vector4f;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.GL_R32F;
+import static org.lwjgl.opengl.GL30.GL_R32UI;
+import static org.lwjgl.opengl.GL30.GL_RED_INTEGER;
+import static org.lwjgl.opengl.GL30.GL_RG;
+import static org.lwjgl.opengl.GL30.GL_RG16;
+import static org.lwjgl.opengl.GL30.GL_RG16F;
+import static org.lwjgl.opengl.GL30.GL_RG32F;
+import static org.lwjgl.opengl.GL30.GL_RG32UI;
+import static org.lwjgl.opengl.GL30.GL_RG_INTEGER;
+import static org.lwjgl.opengl.GL30.GL_RGBA16F;
+import static org.lwjgl.opengl.GL30.GL_RGBA32F;
+import static org.lwjgl.opengl.GL30.GL_RGBA32UI;
+import static org.lwjgl.opengl.GL30.GL_RGBA_INTEGER;
+import static org.lwjgl.opengl.GL30.glBindBufferBase;
+import static org.lwjgl.opengl.GL30.glGetIntegeri;
+import static org.lwjgl.opengl.GL32.glGetInteger64;
+import static org.lwjgl.opengl.GL42.GL_SHADER_IMAGE_ACCESS_BARRIER_BIT;
+import static org.lwjgl.opengl.GL42.glBindImageTexture;
+import static org.lwjgl.opengl.GL42.glMemoryBarrier;
+import static org.lwjgl.opengl.GL43.GL_DISPATCH_INDIRECT_BUFFER;
+import static org.lwjgl.opengl.GL43.GL_MAX_COMPUTE_WORK_GROUP_COUNT;
+import static org.lwjgl.opengl.GL43.GL_MAX_SHADER_STORAGE_BLOCK_SIZE;
+import static org.lwjgl.opengl.GL43.GL_SHADER_STORAGE_BARRIER_BIT;
+import static org.lwjgl.opengl.GL43.GL_SHADER_STORAGE_BUFFER;
+import static org.lwjgl.opengl.GL43.glDispatchCompute;
+import static org.lwjgl.opengl.GL43.glDispatchComputeIndirect;
+
+/**
+ * simulation backend that runs the agent step (compute.shader) and the
+ * diffuse and evaporate pass (posProcessing.shader) as compute shaders on the gpu.
+ * The trail map is double buffered: the agents work on the front texture,
+ * the diffusion reads the front texture and writes the back texture, then the two swap roles.
+ * The agents are split into chunks, every chunk has its own shader storage buffer and its own dispatch,
+ * so the agent count is neither limited by the size of one buffer nor by the work group count of one dispatch
+ */
+public class GpuSimulationBackend implements SimulationBackend {
+
+    /** work group size of posProcessing.shader in both directions */
+    private static final int POST_PROCESSING_GROUP_SIZE = 16;
+
+    /** largest blur size the 32 bit fixed point window sums of blur.shader hold */
+    private static final int MAX_BLUR_SIZE = 127;
+
+    /** work group size of sort.shader, also the number of agents in one sort block */
+    private static final int SORT_GROUP_SIZE = 256;
+
+    /** bits sorted per pass of sort.shader */
+    private static final int SORT_RADIX_BITS = 4;
+
+    /** work group size of integral.shader */
+    private static final int INTEGRAL_GROUP_SIZE = 64;
+
+    /** work group size of compute.shader */
+    private static final int AGENT_GROUP_SIZE = 64;
+
+    /** agent step shader */
+    private ShaderProgram computeShader;
+
+    /** diffuse and evaporate shader */
+    private ShaderProgram postProcessingShader;
+
+    /** prefix sums of the blur, posProcessing.shader takes the window sums from them */
+    private ShaderProgram blurShader;
+
+    /** 32 bit uint texture with the channels of the trail map holding the row prefix sums of the blur */
+    private int rowPrefixTexture;
+
+    /** texture of the same format holding the column prefix sums of the horizontal window sums */
+    private int columnPrefixTexture;
+
+    /** internal format of the prefix sum textures */
+    private int prefixFormat;
+
+    /** writes the attraction field the sensors read */
+    private ShaderProgram attractionShader;
+
+    /** r32f texture holding the attraction field */
+    private int attractionTexture;
+
+    /** builds the summed area table used by integral sensing */
+    private ShaderProgram integralShader;
+
+    /** shader storage buffer holding the summed area table */
+    private int integralBuffer;
+
+    /** shader storage buffer holding the unit directions of the quantized headings */
+    private int headingBuffer;
+
+    /** heading resolution the heading buffer was written for, 0 if it holds no table */
+    private int headingResolution;
+
+    /** headings per radian of the heading buffer */
+    private float headingScale;
+
+    /** shader storage buffers holding the agent chunks, each one is a structure of arrays like AgentStore */
+    private int[] agentBuffers;
+
+    /** number of agents of a full chunk, only the last chunk holds fewer */
+    private int chunkSize;
+
+    /**
+     * dispatch parameters of the agent chunks, four uints per chunk: the work group counts
+     * of glDispatchComputeIndirect and the number of active agents compute.shader checks the ids against.
+     * a shader that changes the counts on the gpu has to be followed by GL_COMMAND_BARRIER_BIT
+     */
+    private int parameterBuffer;
+
+    /** merges the atomic deposits into the trail map */
+    private ShaderProgram depositShader;
+
+    /** r32ui texture the atomic deposits are added to, one block of rows per species */
+    private int depositTexture;
+
+    /** per tile flags of both trail maps telling if the tile may hold mass, tiles of POST_PROCESSING_GROUP_SIZE pixels */
+    private int tileMassBuffer;
+
+    /** number of tiles of one trail map */
+    private int tileCount;
+
+    /** offset of the flags of the front texture in the tile mass buffer, the back texture has the other half */
+    private int frontTiles;
+
+    /** true if the diffusion skips the tiles without mass, read at initialisation */
+    private boolean activeTiles;
+
+    /** radix sort of the agents by their z-order cell */
+    private ShaderProgram sortShader;
+
+    /** second buffer of every chunk the sort gathers into, swaps roles with the agent buffer, created on the first sort */
+    private int[] sortedAgentBuffers;
+
+    /** (morton code, agent index) pairs, ping pong between the sort passes */
+    private int[] pairBuffers;
+
+    /** digit counts of the sort blocks */
+    private int histogramBuffer;
+
+    /** number of agents of all chunks */
+    private int agentCount;
+
+    /** number of leading agents that are simulated, the others are parked, mirrors the parameter buffer */
+    private int activeAgents;
+
+    /** index of the next step, part of the key of the random numbers. step 0 is used by the agent creation */
+    private int stepIndex = 1;
+
+    /** internal format of the trail map textures */
+    private int trailFormat;
+
+    /** image format layout qualifier of the trail maps in the shaders */
+    private String trailLayout;
+
+    /** channels stored per pixel of the trail maps */
+    private TrailLayout trailChannels;
+
+    /** trail map the agents sense and deposit on, holds the result of the last step */
+    private Texture frontTexture;
+
+    /** trail map the diffusion writes to */
+    private Texture backTexture;
+
+    /**
+     * @param frontTexture trail map texture the simulation starts on, allocated in the trail format by init()
+     * @param backTexture second trail map texture of the same size
+     */
+    public GpuSimulationBackend(Texture frontTexture, Texture backTexture) {
+        this.frontTexture = frontTexture;
+        this.backTexture = backTexture;
+    }
+
+    @Override
+    public void init(SimulationSettings settings, AgentStore agents) throws Exception {
+        setupTrailFormat(settings.getTrailPrecision(), settings.getTrailLayout());
+        allocateTrailTexture(frontTexture, settings);
+        allocateTrailTexture(backTexture, settings);
+
+        computeShader = new ShaderProgram();
+        computeShader.createComputeShader(loadTrailShader("/shader/compute.shader"));
+        computeShader.link();
+
+        computeShader.createUniforms("sensorAngleSpacing");
+        computeShader.createUniforms("deltaTime");
+        computeShader.createUniforms("turnSpeed");
+        computeShader.createUniforms("sensorOffsetDist");
+        computeShader.createUniforms("sensorSize");
+        computeShader.createUniforms("height");
+        computeShader.createUniforms("width");
+        computeShader.createUniforms("agentCount");
+        computeShader.createUniforms("agentOffset");
+        computeShader.createUniforms("chunkIndex");
+        computeShader.createUniforms("seed");
+        computeShader.createUniforms("stepIndex");
+        computeShader.createUniforms("integralSensing");
+        computeShader.createUniforms("headingResolution");
+        computeShader.createUniforms("headingScale");
+        computeShader.createUniforms("atomicDeposit");
+        computeShader.createUniforms("boundaryMode");
+        computeShader.createUniforms("activeTiles");
+        computeShader.createUniforms("sourceTiles");
+
+        depositShader = new ShaderProgram();
+        depositShader.createComputeShader(loadTrailShader("/shader/deposit.shader"));
+        depositShader.link();
+
+        depositShader.createUniforms("width");
+        depositShader.createUniforms("height");
+
+        ByteBuffer zeros = MemoryUtil.memCalloc(settings.getWidth() * settings.getHeight() * 2, Integer.BYTES);
+        depositTexture = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, depositTexture);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_R32UI, settings.getWidth(), settings.getHeight() * 2, 0, GL_RED_INTEGER, GL_UNSIGNED_INT, zeros);
+        glBindTexture(GL_TEXTURE_2D, 0);
+        MemoryUtil.memFree(zeros);
+
+        attractionShader = new ShaderProgram();
+        attractionShader.createComputeShader(loadTrailShader("/shader/attraction.shader"));
+        attractionShader.link();
+
+        attractionShader.createUniforms("width");
+        attractionShader.createUniforms("height");
+
+        attractionTexture = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, attractionTexture);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_R32F, settings.getWidth(), settings.getHeight(), 0, GL_RED, GL_FLOAT, (ByteBuffer) null);
+        glBindTexture(GL_TEXTURE_2D, 0);
+
+        integralShader = new ShaderProgram();
+        integralShader.createComputeShader(Resources.loadResource("/shader/integral.shader"));
+        integralShader.link();
+
+        integralShader.createUniforms("width");
+        integralShader.createUniforms("height");
+        integralShader.createUniforms("integralPass");
+
+        integralBuffer = glGenBuffers();
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, integralBuffer);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 4, integralBuffer);
+        glBufferData(GL_SHADER_STORAGE_BUFFER, (long) (settings.getWidth() + 1) * (settings.getHeight() + 1) * Integer.BYTES, GL_DYNAMIC_COPY);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+
+        headingBuffer = glGenBuffers();
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, headingBuffer);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 5, headingBuffer);
+        glBufferData(GL_SHADER_STORAGE_BUFFER, 2 * Float.BYTES, GL_DYNAMIC_DRAW);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+
+        agentCount = agents.getCount();
+        activeAgents = agentCount;
+        chunkSize = chunkSize(settings.getAgentChunkSize());
+        agentBuffers = new int[Math.max(1, (agentCount + chunkSize - 1) / chunkSize)];
+        for(int chunk = 0; chunk < agentBuffers.length; chunk++) {
+            int from = chunk * chunkSize;
+            int to = chunkEnd(chunk);
+            // the columns of the chunk one after another, like the columns of the store
+            agentBuffers[chunk] = createStorageBuffer((long) (to - from) * AgentStore.COLUMNS * Float.BYTES);
+            glBindBuffer(GL_SHADER_STORAGE_BUFFER, agentBuffers[chunk]);
+            for(int column = 0; column < AgentStore.COLUMNS; column++) {
+                glBufferSubData(GL_SHADER_STORAGE_BUFFER, (long) column * (to - from) * Float.BYTES, agents.getColumnData(column, from, to));
+            }
+            glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+        }
+        parameterBuffer = createStorageBuffer((long) agentBuffers.length * 4 * Integer.BYTES);
+        writeAgentParameters();
+
+        sortShader = new ShaderProgram();
+        sortShader.createComputeShader(Resources.loadResource("/shader/sort.shader"));
+        sortShader.link();
+
+        sortShader.createUniforms("agentCount");
+        sortShader.createUniforms("columnLength");
+        sortShader.createUniforms("sortPass");
+        sortShader.createUniforms("radixShift");
+
+        blurShader = new ShaderProgram();
+        blurShader.createComputeShader(loadTrailShader("/shader/blur.shader"));
+        blurShader.link();
+
+        blurShader.createUniforms("width");
+        blurShader.createUniforms("height");
+        blurShader.createUniforms("blurSize");
+        blurShader.createUniforms("blurPass");
+
+        prefixFormat = trailChannels == TrailLayout.RED_BLUE ? GL_RG32UI : GL_RGBA32UI;
+        rowPrefixTexture = createPrefixTexture(settings);
+        columnPrefixTexture = createPrefixTexture(settings);
+
+        postProcessingShader = new ShaderProgram();
+        postProcessingShader.createComputeShader(loadTrailShader("/shader/posProcessing.shader"));
+        postProcessingShader.link();
+
+        postProcessingShader.createUniforms("width");
+        postProcessingShader.createUniforms("height");
+        postProcessingShader.createUniforms("deltaTime");
+        postProcessingShader.createUniforms("diffuseSpeed");
+        postProcessingShader.createUniforms("blurSize");
+        postProcessingShader.createUniforms("evaporateSpeed");
+        postProcessingShader.createUniforms("activeTiles");
+        postProcessingShader.createUniforms("sourceTiles");
+        postProcessingShader.createUniforms("targetTiles");
+
+        // the trail maps start empty, so all flags start at zero
+        activeTiles = settings.isActiveTiles();
+        tileCount = ((settings.getWidth() + POST_PROCESSING_GROUP_SIZE - 1) / POST_PROCESSING_GROUP_SIZE)
+                * ((settings.getHeight() + POST_PROCESSING_GROUP_SIZE - 1) / POST_PROCESSING_GROUP_SIZE);
+        ByteBuffer emptyTiles = MemoryUtil.memCalloc(tileCount * 2, Integer.BYTES);
+        tileMassBuffer = glGenBuffers();
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, tileMassBuffer);
+        glBufferData(GL_SHADER_STORAGE_BUFFER, emptyTiles, GL_DYNAMIC_COPY);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+        MemoryUtil.memFree(emptyTiles);
+    }
+
+    @Override
+    public void step(SimulationSettings settings) {
+        if(settings.getBlurSize() > MAX_BLUR_SIZE) {
+            throw new IllegalStateException("The gpu blur supports a blurSize of up to " + MAX_BLUR_SIZE);
+        }
+        // the window sums of the summed area table overflow like the ones of the java backend
+        if(settings.isIntegralSensing() && settings.getSensorSize() > IntegralImage.MAX_SENSOR_SIZE) {
+            throw new IllegalStateException("Integral sensing supports a sensorSize of up to " + IntegralImage.MAX_SENSOR_SIZE);
+        }
+        if(settings.getSortInterval() > 0 && stepIndex % settings.getSortInterval() == 0) {
+            sortAgents(settings);
+        }
+        buildAttractionField(settings);
+        if(settings.isIntegralSensing()) {
+            buildIntegralImage(settings);
+        }
+        if(settings.getHeadingResolution() > 0 && settings.getHeadingResolution() != headingResolution) {
+            uploadHeadingTable(settings.getHeadingResolution());
+        }
+
+        // PRIVATE_BUFFERS has no per thread buffers on the gpu and falls back to the atomic adds
+        boolean atomicDeposit = settings.getDepositMode() != DepositMode.DIRECT;
+
+        glBindImageTexture(0, frontTexture.getId(), 0, false, 0, GL_READ_WRITE, trailFormat);
+        glBindImageTexture(3, depositTexture, 0, false, 0, GL_READ_WRITE, GL_R32UI);
+        // binding 0 is shared with the pairs of the sort, which ran before
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 0, tileMassBuffer);
+
+        computeShader.bind();
+
+        computeShader.setUniform("sensorAngleSpacing", settings.getSensorAngleSpacing());
+        computeShader.setUniform("deltaTime", settings.getDeltaTime());
+        computeShader.setUniform("turnSpeed", settings.getTurnSpeed());
+        computeShader.setUniform("sensorOffsetDist", settings.getSensorOffsetDist());
+        computeShader.setUniform("sensorSize", settings.getSensorSize());
+        computeShader.setUniform("width", settings.getWidth());
+        computeShader.setUniform("height", settings.getHeight());
+        computeShader.setUniform("seed", settings.getSeed());
+        computeShader.setUniform("stepIndex", stepIndex);
+        computeShader.setUniform("integralSensing", settings.isIntegralSensing() ? 1 : 0);
+        computeShader.setUniform("headingResolution", settings.getHeadingResolution());
+        computeShader.setUniform("headingScale", headingScale);
+        computeShader.setUniform("atomicDeposit", atomicDeposit ? 1 : 0);
+        computeShader.setUniform("boundaryMode", settings.getBoundaryMode().ordinal());
+        computeShader.setUniform("activeTiles", activeTiles ? 1 : 0);
+        computeShader.setUniform("sourceTiles", frontTiles);
+
+        // the chunks do not depend on each other, they race on the trail map like the agents of one chunk
+        // the group counts come from the parameter buffer, a chunk without active agents dispatches no groups.
+        // binding 1 is shared with the pairs of the sort, which ran before
+        glBindBuffer(GL_DISPATCH_INDIRECT_BUFFER, parameterBuffer);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 1, parameterBuffer);
+        for(int chunk = 0; chunk < agentBuffers.length; chunk++) {
+            glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 2, agentBuffers[chunk]);
+            computeShader.setUniform("agentCount", chunkEnd(chunk) - chunk * chunkSize);
+            computeShader.setUniform("agentOffset", chunk * chunkSize);
+            computeShader.setUniform("chunkIndex", chunk);
+            glDispatchComputeIndirect((long) chunk * 4 * Integer.BYTES);
+        }
+        glBindBuffer(GL_DISPATCH_INDIRECT_BUFFER, 0);
+        glMemoryBarrier(GL_SHADER_IMAGE_ACCESS_BARRIER_BIT | GL_SHADER_STORAGE_BARRIER_BIT);
+
+        if(atomicDeposit) {
+            depositShader.bind();
+            depositShader.setUniform("width", settings.getWidth());
+            depositShader.setUniform("height", settings.getHeight());
+
+            glDispatchCompute((settings.getWidth() + POST_PROCESSING_GROUP_SIZE - 1) / POST_PROCESSING_GROUP_SIZE, (settings.getHeight() + POST_PROCESSING_GROUP_SIZE - 1) / POST_PROCESSING_GROUP_SIZE, 1);
+            glMemoryBarrier(GL_SHADER_IMAGE_ACCESS_BARRIER_BIT);
+        }
+
+        glBindImageTexture(1, frontTexture.getId(), 0, false, 0, GL_READ_ONLY, trailFormat);
+        glBindImageTexture(5, rowPrefixTexture, 0, false, 0, GL_READ_WRITE, prefixFormat);
+        glBindImageTexture(4, columnPrefixTexture, 0, false, 0, GL_READ_WRITE, prefixFormat);
+
+        // separable blur from prefix sums: one work group per row, then one per column
+        blurShader.bind();
+        blurShader.setUniform("width", settings.getWidth());
+        blurShader.setUniform("height", settings.getHeight());
+        blurShader.setUniform("blurSize", settings.getBlurSize());
+
+        blurShader.setUniform("blurPass", 0);
+        glDispatchCompute(settings.getHeight(), 1, 1);
+        glMemoryBarrier(GL_SHADER_IMAGE_ACCESS_BARRIER_BIT);
+
+        blurShader.setUniform("blurPass", 1);
+        glDispatchCompute(settings.getWidth(), 1, 1);
+        glMemoryBarrier(GL_SHADER_IMAGE_ACCESS_BARRIER_BIT);
+
+        glBindImageTexture(0, backTexture.getId(), 0, false, 0, GL_WRITE_ONLY, trailFormat);
+
+        postProcessingShader.bind();
+
+        postProcessingShader.setUniform("width", settings.getWidth());
+        postProcessingShader.setUniform("height", settings.getHeight());
+        postProcessingShader.setUniform("deltaTime", settings.getDeltaTime());
+        postProcessingShader.setUniform("diffuseSpeed", settings.getDiffuseSpeed());
+        postProcessingShader.setUniform("blurSize", settings.getBlurSize());
+        float[] evaporation = trailChannels.evaporation(settings.getEvaporateSpeed(), 1);
+        postProcessingShader.setUniform("evaporateSpeed", new Vector4f(evaporation[0], evaporation[1], evaporation[2], evaporation[3]));
+        postProcessingShader.setUniform("activeTiles", activeTiles ? 1 : 0);
+        postProcessingShader.setUniform("sourceTiles", frontTiles);
+        postProcessingShader.setUniform("targetTiles", tileCount - frontTiles);
+
+        // rounded up, posProcessing.shader skips the invocations outside of the map
+        glDispatchCompute((settings.getWidth() + POST_PROCESSING_GROUP_SIZE - 1) / POST_PROCESSING_GROUP_SIZE, (settings.getHeight() + POST_PROCESSING_GROUP_SIZE - 1) / POST_PROCESSING_GROUP_SIZE, 1);
+        glMemoryBarrier(GL_SHADER_IMAGE_ACCESS_BARRIER_BIT | GL_SHADER_STORAGE_BARRIER_BIT);
+
+        postProcessingShader.unbind();
+
+        Texture diffused = backTexture;
+        backTexture = frontTexture;
+        frontTexture = diffused;
+        frontTiles = tileCount - frontTiles;
+
+        stepIndex++;
+    }
+
+    /**
+     * picks the texture format and the shader layout qualifier of the trail maps
+     *
+     * @param precision storage format of the trail map
+     * @param layout channels stored per pixel
+     */
+    private void setupTrailFormat(TrailPrecision precision, TrailLayout layout) {
+        this.trailChannels = layout;
+        boolean redBlue = layout == TrailLayout.RED_BLUE;
+        switch(precision) {
+            case FLOAT16:
+                trailFormat = redBlue ? GL_RG16F : GL_RGBA16F;
+                trailLayout = redBlue ? "rg16f" : "rgba16f";
+                break;
+            case UNORM16:
+                trailFormat = redBlue ? GL_RG16 : GL_RGBA16;
+                trailLayout = redBlue ? "rg16" : "rgba16";
+                break;
+            default:
+                trailFormat = redBlue ? GL_RG32F : GL_RGBA32F;
+                trailLayout = redBlue ? "rg32f" : "rgba32f";
+        }
+    }
+
+    /**
+     * allocates the storage of a trail map texture in the trail format, cleared to zero
+     *
+     * @param texture trail map texture
+     * @param settings simulation parameters
+     */
+    private void allocateTrailTexture(Texture texture, SimulationSettings settings) {
+        int format = trailChannels == TrailLayout.RED_BLUE ? GL_RG : GL_RGBA;
+        glBindTexture(GL_TEXTURE_2D, texture.getId());
+        glTexImage2D(GL_TEXTURE_2D, 0, trailFormat, settings.getWidth(), settings.getHeight(), 0, format, GL_FLOAT, (ByteBuffer) null);
+        glBindTexture(GL_TEXTURE_2D, 0);
+    }
+
+    /**
+     * allocates a texture for the prefix sums of the blur
+     *
+     * @param settings simulation parameters
+     * @return texture in the prefix sum format
+     */
+    private int createPrefixTexture(SimulationSettings settings) {
+        int texture = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, texture);
+        glTexImage2D(GL_TEXTURE_2D, 0, prefixFormat, settings.getWidth(), settings.getHeight(), 0,
+                trailChannels == TrailLayout.RED_BLUE ? GL_RG_INTEGER : GL_RGBA_INTEGER, GL_UNSIGNED_INT, (ByteBuffer) null);
+        glBindTexture(GL_TEXTURE_2D, 0);
+        return texture;
+    }
+
+    /**
+     * loads a shader that accesses the trail maps as images and sets their format qualifier to the trail format
+     *
+     * @param name resource name of the shader
+     * @return source of the shader
+     * @throws Exception if the shader cant be loaded
+     */
+    private String loadTrailShader(String name) throws Exception {
+        String source = Resources.loadResource(name).replace("rgba32f", trailLayout);
+        boolean redBlue = trailChannels == TrailLayout.RED_BLUE;
+        // SUM_FORMAT is the format of the fixed point prefix sums with the channels of the trail map
+        String defines = "#define SUM_FORMAT " + (redBlue ? "rg32ui" : "rgba32ui") + "\n";
+        if(redBlue) {
+            // red is stored in x and blue in y, the shaders pick their channels with this define
+            defines += "#define RED_BLUE_LAYOUT\n";
+        }
+        int versionEnd = source.indexOf('\n') + 1;
+        return source.substring(0, versionEnd) + defines + source.substring(versionEnd);
+    }
+
+    /**
+     * writes the attraction field of the front trail map, once per step,
+     * so the sensors load one value per sample instead of two channels
+     *
+     * @param settings simulation parameters
+     */
+    private void buildAttractionField(SimulationSettings settings) {
+        glBindImageTexture(1, frontTexture.getId(), 0, false, 0, GL_READ_ONLY, trailFormat);
+        glBindImageTexture(2, attractionTexture, 0, false, 0, GL_READ_WRITE, GL_R32F);
+
+        attractionShader.bind();
+        attractionShader.setUniform("width", settings.getWidth());
+        attractionShader.setUniform("height", settings.getHeight());
+
+        glDispatchCompute((settings.getWidth() + POST_PROCESSING_GROUP_SIZE - 1) / POST_PROCESSING_GROUP_SIZE, (settings.getHeight() + POST_PROCESSING_GROUP_SIZE - 1) / POST_PROCESSING_GROUP_SIZE, 1);
+        glMemoryBarrier(GL_SHADER_IMAGE_ACCESS_BARRIER_BIT);
+    }
+
+    /**
+     * builds the summed area table of the attraction field:
+     * prefix sums along the rows, then down the columns
+     *
+     * @param settings simulation parameters
+     */
+    private void buildIntegralImage(SimulationSettings settings) {
+        integralShader.bind();
+        integralShader.setUniform("width", settings.getWidth());
+        integralShader.setUniform("height", settings.getHeight());
+
+        integralShader.setUniform("integralPass", 0);
+        glDispatchCompute((settings.getHeight() + INTEGRAL_GROUP_SIZE - 1) / INTEGRAL_GROUP_SIZE, 1, 1);
+        glMemoryBarrier(GL_SHADER_STORAGE_BARRIER_BIT);
+
+        integralShader.setUniform("integralPass", 1);
+        glDispatchCompute((settings.getWidth() + INTEGRAL_GROUP_SIZE - 1) / INTEGRAL_GROUP_SIZE, 1, 1);
+        glMemoryBarrier(GL_SHADER_STORAGE_BARRIER_BIT);
+    }
+
+    /**
+     * reorders every agent chunk by the z-order cell of the agents with the radix sort of sort.shader,
+     * then makes the sorted copies the agent buffers. The chunks are sorted on their own, agents do not
+     * move between chunks
+     *
+     * @param settings simulation parameters
+     */
+    private void sortAgents(SimulationSettings settings) {
+        if(sortedAgentBuffers == null) {
+            sortedAgentBuffers = new int[agentBuffers.length];
+            for(int chunk = 0; chunk < agentBuffers.length; chunk++) {
+                sortedAgentBuffers[chunk] = createStorageBuffer((long) (chunkEnd(chunk) - chunk * chunkSize) * AgentStore.COLUMNS * Float.BYTES);
+            }
+            // the pairs and the histogram are shared by the chunks, which are sorted one after another
+            int size = Math.min(chunkSize, agentCount);
+            pairBuffers = new int[] {createStorageBuffer((long) size * 2 * Integer.BYTES), createStorageBuffer((long) size * 2 * Integer.BYTES)};
+            histogramBuffer = createStorageBuffer((long) ((size + SORT_GROUP_SIZE - 1) / SORT_GROUP_SIZE) * (1 << SORT_RADIX_BITS) * Integer.BYTES);
+        }
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 7, histogramBuffer);
+        sortShader.bind();
+        // chunks without active agents stay as they are
+        for(int chunk = 0; chunk < agentBuffers.length && chunk * chunkSize < activeAgents; chunk++) {
+            sortChunk(settings, chunk);
+        }
+    }
+
+    /**
+     * sorts the active agents of one chunk, the gather copies the parked ones to the same slots
+     *
+     * @param settings simulation parameters
+     * @param chunk index of the chunk
+     */
+    private void sortChunk(SimulationSettings settings, int chunk) {
+        int length = chunkEnd(chunk) - chunk * chunkSize;
+        int count = Math.min(length, activeAgents - chunk * chunkSize);
+        int blocks = (count + SORT_GROUP_SIZE - 1) / SORT_GROUP_SIZE;
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 2, agentBuffers[chunk]);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 6, sortedAgentBuffers[chunk]);
+        sortShader.setUniform("agentCount", count);
+        sortShader.setUniform("columnLength", length);
+
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 1, pairBuffers[0]);
+        sortShader.setUniform("sortPass", 0);
+        glDispatchCompute(blocks, 1, 1);
+        glMemoryBarrier(GL_SHADER_STORAGE_BARRIER_BIT);
+
+        int current = 0;
+        int keyBits = MortonSort.keyBits(settings.getWidth(), settings.getHeight());
+        for(int shift = 0; shift < keyBits; shift += SORT_RADIX_BITS) {
+            glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 0, pairBuffers[current]);
+            glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 1, pairBuffers[1 - current]);
+            sortShader.setUniform("radixShift", shift);
+
+            sortShader.setUniform("sortPass", 1);
+            glDispatchCompute(blocks, 1, 1);
+            glMemoryBarrier(GL_SHADER_STORAGE_BARRIER_BIT);
+
+            sortShader.setUniform("sortPass", 2);
+            glDispatchCompute(1, 1, 1);
+            glMemoryBarrier(GL_SHADER_STORAGE_BARRIER_BIT);
+
+            sortShader.setUniform("sortPass", 3);
+            glDispatchCompute(blocks, 1, 1);
+            glMemoryBarrier(GL_SHADER_STORAGE_BARRIER_BIT);
+
+            current = 1 - current;
+        }
+
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 0, pairBuffers[current]);
+        sortShader.setUniform("sortPass", 4);
+        glDispatchCompute((length + SORT_GROUP_SIZE - 1) / SORT_GROUP_SIZE, 1, 1);
+        glMemoryBarrier(GL_SHADER_STORAGE_BARRIER_BIT);
+
+        int sorted = sortedAgentBuffers[chunk];
+        sortedAgentBuffers[chunk] = agentBuffers[chunk];
+        agentBuffers[chunk] = sorted;
+    }
+
+    /**
+     * @param requested agents per chunk asked for in the settings, 0 for the largest possible chunks
+     * @return agents per chunk, limited by the largest shader storage block and the work group count
+     * of one dispatch, a multiple of the sort block size
+     */
+    private static int chunkSize(int requested) {
+        long maxBlockAgents = glGetInteger64(GL_MAX_SHADER_STORAGE_BLOCK_SIZE) / (AgentStore.COLUMNS * Float.BYTES);
+        long maxDispatchAgents = (long) glGetIntegeri(GL_MAX_COMPUTE_WORK_GROUP_COUNT, 0) * AGENT_GROUP_SIZE;
+        long size = Math.min(Math.min(maxBlockAgents, maxDispatchAgents), AgentStore.MAX_COUNT);
+        if(requested > 0) {
+            size = Math.min(size, requested);
+        }
+        return (int) Math.max(SORT_GROUP_SIZE, size / SORT_GROUP_SIZE * SORT_GROUP_SIZE);
+    }
+
+    /**
+     * @param chunk index of the chunk
+     * @return end of the agent range of the chunk (exclusive)
+     */
+    private int chunkEnd(int chunk) {
+        return (int) Math.min(agentCount, (long) (chunk + 1) * chunkSize);
+    }
+
+    /**
+     * @param size size in bytes
+     * @return new shader storage buffer with undefined content
+     */
+    private static int createStorageBuffer(long size) {
+        int buffer = glGenBuffers();
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, buffer);
+        glBufferData(GL_SHADER_STORAGE_BUFFER, size, GL_DYNAMIC_COPY);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+        return buffer;
+    }
+
+    @Override
+    public void setActiveAgents(int count) {
+        int active = Math.max(0, Math.min(agentCount, count));
+        if(active != activeAgents) {
+            activeAgents = active;
+            writeAgentParameters();
+        }
+    }
+
+    /**
+     * writes the dispatch parameters of all chunks for the current number of active agents.
+     * a change of the count only rewrites this small buffer, the next step picks it up without new uniforms or shaders
+     */
+    private void writeAgentParameters() {
+        IntBuffer parameters = MemoryUtil.memAllocInt(agentBuffers.length * 4);
+        try {
+            for(int chunk = 0; chunk < agentBuffers.length; chunk++) {
+                int active = Math.max(0, Math.min(chunkEnd(chunk), activeAgents) - chunk * chunkSize);
+                parameters.put((active + AGENT_GROUP_SIZE - 1) / AGENT_GROUP_SIZE).put(1).put(1).put(active);
+            }
+            parameters.flip();
+            glBindBuffer(GL_SHADER_STORAGE_BUFFER, parameterBuffer);
+            glBufferSubData(GL_SHADER_STORAGE_BUFFER, 0, parameters);
+            glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+        } finally {
+            MemoryUtil.memFree(parameters);
+        }
+    }
+
+    /**
+     * writes the unit directions of the quantized headings into the heading buffer.
+     * the shader multiplies them with sensorOffsetDist itself, so the buffer only changes with the resolution
+     *
+     * @param resolution number of headings, a power of two
+     */
+    private void uploadHeadingTable(int resolution) {
+        HeadingTable table = new HeadingTable(resolution);
+        FloatBuffer directions = MemoryUtil.memAllocFloat(resolution * 2);
+        try {
+            table.writeDirections(directions);
+            directions.flip();
+            glBindBuffer(GL_SHADER_STORAGE_BUFFER, headingBuffer);
+            glBufferData(GL_SHADER_STORAGE_BUFFER, directions, GL_DYNAMIC_DRAW);
+            glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+        } finally {
+            MemoryUtil.memFree(directions);
+        }
+        headingResolution = resolution;
+        headingScale = table.getScale();
+    }
+
+    /**
+     * @return trail map texture holding the result of the last step
+     */
+    public Texture getTrailTexture() {
+        return frontTexture;
+    }
+
+    @Override
+    public void cleanup() {
+        if(computeShader != null) {
+            computeShader.cleanup();
+        }
+        if(postProcessingShader != null) {
+            postProcessingShader.cleanup();
+        }
+        if(blurShader != null) {
+            blurShader.cleanup();
+        }
+        if(rowPrefixTexture != 0) {
+            glDeleteTextures(rowPrefixTexture);
+            glDeleteTextures(columnPrefixTexture);
+        }
+        if(attractionShader != null) {
+            attractionShader.cleanup();
+        }
+        if(attractionTexture != 0) {
+            glDeleteTextures(attractionTexture);
+        }
+        if(integralShader != null) {
+            integralShader.cleanup();
+        }
+        if(integralBuffer != 0) {
+            glDeleteBuffers(integralBuffer);
+        }
+        if(headingBuffer != 0) {
+            glDeleteBuffers(headingBuffer);
+        }
+        if(agentBuffers != null) {
+            glDeleteBuffers(agentBuffers);
+        }
+        if(parameterBuffer != 0) {
+            glDeleteBuffers(parameterBuffer);
+        }
+        if(depositShader != null) {
+            depositShader.cleanup();
+        }
+        if(depositTexture != 0) {
+            glDeleteTextures(depositTexture);
+        }
+        if(tileMassBuffer != 0) {
+            glDeleteBuffers(tileMassBuffer);
+        }
+        if(sortShader != null) {
+            sortShader.cleanup();
+        }
+        if(sortedAgentBuffers != null) {
+            glDeleteBuffers(sortedAgentBuffers);
+            glDeleteBuffers(pairBuffers[0]);
+            glDeleteBuffers(pairBuffers[1]);
+            glDeleteBuffers(histogramBuffer);
+        }
+    }
+}
@@ -5,38 +5,48 @@ import engine.general.Transformation;
 import engine.general.Window;
 import engine.items.GameItem;
 import engine.items.Mesh;
+import engine.items.Texture;
+import engine.simulation.AgentBudget;
+import engine.simulation.AgentSpawner;
+import engine.simulation.AgentStore;
+import engine.simulation.CpuSimulationBackend;
+import engine.simulation.SimulationBackend;
+import engine.simulation.SimulationSettings;
+import engine.simulation.SpawnDistribution;
+import engine.simulation.TrailLayout;
 import org.joml.Matrix4f;
-import org.joml.Vector4f;
 import org.lwjgl.opengl.GL11;
 import program.Program;
 
+import java.util.ArrayDeque;
+
 import static org.lwjgl.opengl.GL15.*;
 import static org.lwjgl.opengl.GL30.*;
-import static org.lwjgl.opengl.GL42.*;
-import static org.lwjgl.opengl.GL43.GL_SHADER_STORAGE_BUFFER;
-import static org.lwjgl.opengl.GL43.glDispatchCompute;
+import static org.lwjgl.opengl.GL32.GL_SYNC_FLUSH_COMMANDS_BIT;
+import static org.lwjgl.opengl.GL32.GL_SYNC_GPU_COMMANDS_COMPLETE;
+import static org.lwjgl.opengl.GL32.glClientWaitSync;
+import static org.lwjgl.opengl.GL32.glDeleteSync;
+import static org.lwjgl.opengl.GL32.glFenceSync;
+import static org.lwjgl.opengl.GL33.GL_TIME_ELAPSED;
+import static org.lwjgl.opengl.GL33.glGetQueryObjecti64;
 
 public class Renderer {
 
 
-    public static int WIDTH = 1920;
-    public static int HEIGHT = 1200;
-
-    private static int postProcessingGroupSize = 16;
-
-    private float deltaTime = 1f;
-
-    private float diffuseSpeed = 1f;
-
-    private Vector4f evaporateSpeed = new Vector4f(0.005f, 0.03f, 0.005f, 0.05f);
+    public static int WIDTH = SimulationSettings.DEFAULT_WIDTH;
+    public static int HEIGHT = SimulationSettings.DEFAULT_HEIGHT;
 
-    private float sensorAngleSpacing = 01f;
+    /** parameters of the simulation */
+    private final SimulationSettings settings = new SimulationSettings(WIDTH, HEIGHT);
 
-    private float turnSpeed = 0.1f;
+    /** backend that advances the simulation */
+    private SimulationBackend backend;
 
-    private float sensorOffsetDist = 5;
+    /** if true the simulation runs in java instead of compute shaders */
+    private final boolean cpuSimulation;
 
-    private int sensorSize = 3;
+    /** agents of the simulation, stored off-heap */
+    private AgentStore agents;
 
     /** transformation object used for the matrix calculations */
     private final Transformation transformation;
@@ -44,15 +54,26 @@ public class Renderer {
     /** shader program for the scene (3d objects) */
     private ShaderProgram sceneShaderProgram;
 
-    private ShaderProgram computeShader;
+    /** number of gpu steps that may be queued in the unlimited mode before the next one waits */
+    private static final int MAX_PENDING_STEPS = 2;
 
-    private ShaderProgram postProcessingShader;
+    /** fences of the gpu steps queued in the unlimited mode, oldest first */
+    private final ArrayDeque<Long> pendingSteps = new ArrayDeque<>();
+
+    /** adapts the active agents to the target step time, null if all agents stay active */
+    private AgentBudget agentBudget;
+
+    /** time elapsed queries of the gpu steps of the last frames and the number of steps they cover, oldest first */
+    private final ArrayDeque<int[]> stepQueries = new ArrayDeque<>();
 
     /**
-     * constructor creates transformation object
+     * constructor creates transformation object and the simulation backend
+     *
+     * @param cpuSimulation if true the simulation runs in java instead of compute shaders
      */
-    public Renderer(){
+    public Renderer(boolean cpuSimulation){
         transformation = new Transformation();
+        this.cpuSimulation = cpuSimulation;
     }
 
     /**
@@ -66,6 +87,20 @@ public class Renderer {
 
         setupSceneShader();
 
+        if(cpuSimulation){
+            backend = new CpuSimulationBackend();
+        } else {
+            backend = new GpuSimulationBackend(new Texture(Program.tex_output, WIDTH, HEIGHT), new Texture(Program.tex_output_temp, WIDTH, HEIGHT));
+        }
+
+        agents = new AgentSpawner().spawn(settings.getAgentCount(), SpawnDistribution.byName(settings.getSpawnDistribution(), WIDTH, HEIGHT), settings.getSeed());
+        backend.init(settings, agents);
+
+        if(settings.getTargetStepTime() > 0) {
+            // start small and grow, a weak machine never sees a frame with all agents
+            agentBudget = new AgentBudget(settings.getMinAgents(), agents.getCount(), settings.getMinAgents());
+            backend.setActiveAgents(agentBudget.getActiveAgents());
+        }
     }
 
     /**
@@ -83,67 +118,11 @@ public class Renderer {
 
         sceneShaderProgram.createUniforms("modelViewMatrix");
         sceneShaderProgram.createUniforms("texture_sampler");
-
-
-        computeShader = new ShaderProgram();
-        computeShader.createComputeShader(Resources.loadResource("/shader/compute.shader"));
-        computeShader.link();
-
-        computeShader.createUniforms("sensorAngleSpacing");
-        computeShader.createUniforms("deltaTime");
-        computeShader.createUniforms("turnSpeed");
-        computeShader.createUniforms("sensorOffsetDist");
-        computeShader.createUniforms("sensorSize");
-        computeShader.createUniforms("height");
-        computeShader.createUniforms("width");
-
-
-
-        int ssbo = glGenBuffers();
-        glBindBuffer(GL_SHADER_STORAGE_BUFFER, ssbo);
-        float[] color = createAgents(1000000);
-        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 2, ssbo);
-        glBufferData(GL_SHADER_STORAGE_BUFFER, color, GL_DYNAMIC_COPY);
-        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
-
-        postProcessingShader = new ShaderProgram();
-        postProcessingShader.createComputeShader(Resources.loadResource("/shader/posProcessing.shader"));
-        postProcessingShader.link();
-
-        postProcessingShader.createUniforms("width");
-        postProcessingShader.createUniforms("height");
-        postProcessingShader.createUniforms("deltaTime");
-        postProcessingShader.createUniforms("diffuseSpeed");
-        postProcessingShader.createUniforms("evaporateSpeed");
-
+        sceneShaderProgram.createUniforms("redBlueLayout");
+        sceneShaderProgram.createUniforms("greenDecay");
 
     }
 
-    private float[] createAgents(int number) {
-        float[] result = new float[number * 4];
-        for(int i = 0; i < number; i++) {
-            float angle = (float) (Math.random() * Math.PI * 2);
-            float dist = (float) (10 * Math.random() + 10);
-
-
-            result[i * 4] = (float) (1920/2 + dist * Math.cos(angle));
-            result[i * 4 + 1] = (float) (1080/2 + dist * Math.sin(angle));
-            result[i * 4 + 2] = (float) (angle);
-            result[i * 4 + 3] = Math.random()>0.5f?0:1;
-
-
-
-            /*
-            result[i * 4] = (float) (WIDTH/2);
-            result[i * 4 + 1] = (float) (HEIGHT * Math.random());
-            result[i * 4 + 2] = (float) (Math.PI);
-            result[i * 4 + 3] = Math.random()>0.5f?0:1;
-
-             */
-        }
-        return result;
-    }
-
     /**
      * Main rendering method updates the viewport if the window got resized,
      * updates the main matrices with the camera and calls the three rendering methods
@@ -174,38 +153,22 @@ public class Renderer {
 
 
 
-        computeShader.bind();
-
-        computeShader.setUniform("sensorAngleSpacing",sensorAngleSpacing);
-        computeShader.setUniform("deltaTime",deltaTime);
-        computeShader.setUniform("turnSpeed",turnSpeed);
-        computeShader.setUniform("sensorOffsetDist",sensorOffsetDist);
-        computeShader.setUniform("sensorSize",sensorSize);
-        computeShader.setUniform("width",WIDTH);
-        computeShader.setUniform("height",HEIGHT);
-
-
-
-        glDispatchCompute(32, 16, 16);
-        glMemoryBarrier(GL_SHADER_IMAGE_ACCESS_BARRIER_BIT);
-
-        postProcessingShader.bind();
-
-        postProcessingShader.setUniform("width", WIDTH);
-        postProcessingShader.setUniform("height", HEIGHT);
-        postProcessingShader.setUniform("deltaTime", deltaTime);
-        postProcessingShader.setUniform("diffuseSpeed", diffuseSpeed);
-        postProcessingShader.setUniform("evaporateSpeed", evaporateSpeed);
-
-        glDispatchCompute(WIDTH/postProcessingGroupSize,HEIGHT/postProcessingGroupSize,1);
-        glMemoryBarrier(GL_SHADER_IMAGE_ACCESS_BARRIER_BIT);
+        stepSimulation();
 
+        if(backend instanceof CpuSimulationBackend) {
+            uploadTrailMap((CpuSimulationBackend) backend);
+        } else {
+            // the gpu trail maps swap roles every step, show the one holding the last result
+            gameItem.getMesh().getMaterial().setTexture(((GpuSimulationBackend) backend).getTrailTexture());
+        }
 
         sceneShaderProgram.bind();
         Matrix4f orthographic = transformation.getOrtho2DProjectionMatrix(0,1,1,0,0,1);
         transformation.buildOrtoProjModelMatrix(gameItem, orthographic);
         sceneShaderProgram.setUniform("modelViewMatrix", transformation.buildOrtoProjModelMatrix(gameItem, orthographic));
         sceneShaderProgram.setUniform("texture_sampler",0);
+        sceneShaderProgram.setUniform("redBlueLayout", settings.getTrailLayout() == TrailLayout.RED_BLUE ? 1 : 0);
+        sceneShaderProgram.setUniform("greenDecay", TrailLayout.greenDecay(settings.getEvaporateSpeed()));
         gameItem.getMesh().render();
         sceneShaderProgram.unbind();
 
@@ -214,12 +177,130 @@ public class Renderer {
 
 
     /**
-     * cleans up the shaders
+     * runs the simulation steps of one presented frame and feeds their time to the agent budget.
+     * the java steps are timed on the cpu, the gpu steps with a time elapsed query that is read
+     * a few frames later, once the gpu finished them
+     */
+    private void stepSimulation() {
+        if(agentBudget == null) {
+            runSteps();
+            return;
+        }
+        if(backend instanceof GpuSimulationBackend) {
+            int query = glGenQueries();
+            glBeginQuery(GL_TIME_ELAPSED, query);
+            int steps = runSteps();
+            glEndQuery(GL_TIME_ELAPSED);
+            stepQueries.add(new int[] {query, steps});
+            while(!stepQueries.isEmpty() && glGetQueryObjecti(stepQueries.peek()[0], GL_QUERY_RESULT_AVAILABLE) == GL_TRUE) {
+                int[] finished = stepQueries.poll();
+                updateAgentBudget(glGetQueryObjecti64(finished[0], GL_QUERY_RESULT) / 1e6, finished[1]);
+                glDeleteQueries(finished[0]);
+            }
+        } else {
+            long start = System.nanoTime();
+            int steps = runSteps();
+            updateAgentBudget((System.nanoTime() - start) / 1e6, steps);
+        }
+    }
+
+    /**
+     * @param millis time of the steps in milliseconds
+     * @param steps number of steps
+     */
+    private void updateAgentBudget(double millis, int steps) {
+        if(agentBudget.record(millis, steps, settings.getTargetStepTime())) {
+            backend.setActiveAgents(agentBudget.getActiveAgents());
+        }
+    }
+
+    /**
+     * runs the simulation steps of one presented frame back to back: stepsPerFrame steps,
+     * or in the unlimited mode as many steps as fit into the frame budget
+     *
+     * @return number of steps run
+     */
+    private int runSteps() {
+        int stepsPerFrame = settings.getStepsPerFrame();
+        if(stepsPerFrame > 0) {
+            for(int i = 0; i < stepsPerFrame; i++) {
+                backend.step(settings);
+            }
+            return stepsPerFrame;
+        }
+
+        long end = System.nanoTime() + (long) (settings.getFrameBudget() * 1e6);
+        int steps = 0;
+        do {
+            backend.step(settings);
+            steps++;
+            if(backend instanceof GpuSimulationBackend) {
+                limitPendingSteps();
+            }
+        } while(System.nanoTime() < end);
+
+        // the present waits for the queued steps anyway
+        while(!pendingSteps.isEmpty()) {
+            glDeleteSync(pendingSteps.poll());
+        }
+        return steps;
+    }
+
+    /**
+     * the dispatches of a gpu step return before the gpu did the work. without a limit the unlimited mode
+     * would queue steps until the driver blocks and the frame budget would only measure the queueing.
+     * every step gets a fence, and once too many steps are queued the oldest one is waited for
+     */
+    private void limitPendingSteps() {
+        pendingSteps.add(glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0));
+        if(pendingSteps.size() > MAX_PENDING_STEPS) {
+            long oldest = pendingSteps.poll();
+            glClientWaitSync(oldest, GL_SYNC_FLUSH_COMMANDS_BIT, Long.MAX_VALUE);
+            glDeleteSync(oldest);
+        }
+    }
+
+    /**
+     * copies the trail map of a java backend into the texture displayed on the quad
+     *
+     * @param cpuBackend backend holding the trail map
+     */
+    private void uploadTrailMap(CpuSimulationBackend cpuBackend) {
+        // a red blue map lands in the red and green channels of the texture, fragment.shader moves it to red and blue
+        int format = cpuBackend.getTrailLayout() == TrailLayout.RED_BLUE ? GL_RG : GL_RGBA;
+        glBindTexture(GL_TEXTURE_2D, Program.tex_output);
+        if(cpuBackend.getShortTrailMap() != null) {
+            // the driver converts the normalized shorts to the floats of the texture
+            glTexSubImage2D(GL_TEXTURE_2D, 0, 0, 0, cpuBackend.getWidth(), cpuBackend.getHeight(), format, GL_UNSIGNED_SHORT, cpuBackend.getShortTrailMap());
+        } else {
+            glTexSubImage2D(GL_TEXTURE_2D, 0, 0, 0, cpuBackend.getWidth(), cpuBackend.getHeight(), format, GL_FLOAT, cpuBackend.getTrailMap());
+        }
+        glBindTexture(GL_TEXTURE_2D, 0);
+    }
+
+    /**
+     * @return parameters of the simulation
+     */
+    public SimulationSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * cleans up the shaders and the simulation backend
      */
     public void cleanup(){
         if(sceneShaderProgram != null){
             sceneShaderProgram.cleanup();
         }
+        while(!stepQueries.isEmpty()){
+            glDeleteQueries(stepQueries.poll()[0]);
+        }
+        if(backend != null){
+            backend.cleanup();
+        }
+        if(agents != null){
+            agents.free();
+        }
     }
 
     /**
@@ -0,0 +1,162 @@
+package engine.simulation;
+
+import java.util.Arrays;
+
+/**
+ * flags telling for every diffusion tile of the two trail maps if the tile may hold mass (a value above zero).
+ * Deposits mark their tile in the front map, the diffusion marks the tiles of its target that still hold mass
+ * after the evaporation. A tile is only diffused if a tile within the blur border of it holds mass in the source,
+ * or if its target tile holds mass of an earlier step that has to be overwritten.
+ * All other tiles would come out as zero and are skipped, so the result is the same as without the flags
+ */
+public class ActiveTiles {
+
+    /** edge length of the tiles in pixels */
+    private final int tileSize;
+
+    /** number of tiles in a row */
+    private final int tilesX;
+
+    /** number of tile rows */
+    private final int tilesY;
+
+    /** tiles of the front map (the source of the next diffusion) that may hold mass */
+    private byte[] sourceMass;
+
+    /** tiles of the back map (the target of the next diffusion) that may hold mass */
+    private byte[] targetMass;
+
+    /**
+     * creates the flags of two empty maps
+     *
+     * @param width map width in pixels
+     * @param height map height in pixels
+     * @param tileSize edge length of the tiles in pixels, the tile size of the diffusion
+     */
+    public ActiveTiles(int width, int height, int tileSize) {
+        if(tileSize <= 0) {
+            throw new IllegalArgumentException("Active tiles need a tile size above 0");
+        }
+        this.tileSize = tileSize;
+        this.tilesX = (width + tileSize - 1) / tileSize;
+        this.tilesY = (height + tileSize - 1) / tileSize;
+        this.sourceMass = new byte[tilesX * tilesY];
+        this.targetMass = new byte[tilesX * tilesY];
+    }
+
+    /**
+     * marks the tile of a deposit in the front map, may be called by several threads at once
+     *
+     * @param x column of the deposit
+     * @param y row of the deposit
+     */
+    public void mark(int x, int y) {
+        sourceMass[(y / tileSize) * tilesX + x / tileSize] = 1;
+    }
+
+    /**
+     * @param fromX first column of the tile
+     * @param fromRow first row of the tile
+     * @param blurSize blur radius in pixels
+     * @return true if the tile has to be diffused
+     */
+    boolean needsDiffusion(int fromX, int fromRow, int blurSize) {
+        int tileX = fromX / tileSize;
+        int tileY = fromRow / tileSize;
+        if(targetMass[tileY * tilesX + tileX] != 0) {
+            return true;
+        }
+        int border = (blurSize + tileSize - 1) / tileSize;
+        for(int y = Math.max(0, tileY - border); y <= Math.min(tilesY - 1, tileY + border); y++) {
+            for(int x = Math.max(0, tileX - border); x <= Math.min(tilesX - 1, tileX + border); x++) {
+                if(sourceMass[y * tilesX + x] != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * records if a diffused tile holds mass in the target
+     *
+     * @param fromX first column of the tile
+     * @param fromRow first row of the tile
+     * @param mass true if any value of the tile is above zero
+     */
+    void setTargetMass(int fromX, int fromRow, boolean mass) {
+        targetMass[(fromRow / tileSize) * tilesX + fromX / tileSize] = (byte) (mass ? 1 : 0);
+    }
+
+    /**
+     * swaps the flags of the two maps, called when the maps swap roles after the diffusion
+     */
+    public void swap() {
+        byte[] swap = sourceMass;
+        sourceMass = targetMass;
+        targetMass = swap;
+    }
+
+    /**
+     * marks every tile of both maps, for maps that were changed outside of the deposits
+     */
+    public void markAll() {
+        Arrays.fill(sourceMass, (byte) 1);
+        Arrays.fill(targetMass, (byte) 1);
+    }
+
+    /**
+     * @return number of tiles of the front map that may hold mass
+     */
+    public int countActive() {
+        int count = 0;
+        for(byte mass : sourceMass) {
+            count += mass;
+        }
+        return count;
+    }
+
+    /**
+     * @return total number of tiles of a map
+     */
+    public int getTileCount() {
+        return tilesX * tilesY;
+    }
+
+    /**
+     * @return edge length of the tiles in pixels
+     */
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * @return true if any value of the tile is not zero
+     */
+    static boolean holdsMass(float[] map, int width, int channels, int fromX, int toX, int fromRow, int toRow) {
+        for(int y = fromRow; y < toRow; y++) {
+            int end = (y * width + toX) * channels;
+            for(int i = (y * width + fromX) * channels; i < end; i++) {
+                if(map[i] != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if any value of the tile is not zero
+     */
+    static boolean holdsMass(short[] map, int width, int channels, int fromX, int toX, int fromRow, int toRow) {
+        for(int y = fromRow; y < toRow; y++) {
+            int end = (y * width + toX) * channels;
+            for(int i = (y * width + fromX) * channels; i < end; i++) {
+                if(map[i] != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
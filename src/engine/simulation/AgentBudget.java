@@ -0,0 +1,97 @@
+package engine.simulation;
+
+/**
+ * adapts the number of active agents to hold a target time per simulation step.
+ * The measured step times are averaged over a few steps, then the count is scaled towards
+ * the ratio of the target to the measured time. Part of a step (the diffusion) does not depend
+ * on the agent count, so the correction is damped and limited per adjustment, which keeps
+ * the count from oscillating. The count can shrink faster than it grows, a slow step hurts more than idle capacity
+ */
+public class AgentBudget {
+
+    /** number of steps averaged before the count is adjusted */
+    private static final int INTERVAL = 8;
+
+    /** fraction of the distance to the target ratio corrected per adjustment */
+    private static final double GAIN = 0.5;
+
+    /** largest factor the count grows by per adjustment */
+    private static final double MAX_GROWTH = 1.25;
+
+    /** smallest factor the count shrinks to per adjustment */
+    private static final double MAX_SHRINK = 0.5;
+
+    /** relative distance from the target that is accepted without an adjustment */
+    private static final double TOLERANCE = 0.05;
+
+    /** lower limit of the active agents */
+    private final int minAgents;
+
+    /** upper limit of the active agents, the number of allocated agents */
+    private final int maxAgents;
+
+    /** current number of active agents */
+    private int activeAgents;
+
+    /** summed time of the steps measured since the last adjustment in milliseconds */
+    private double measuredTime;
+
+    /** number of steps measured since the last adjustment */
+    private int measuredSteps;
+
+    /**
+     * @param minAgents lower limit of the active agents
+     * @param maxAgents upper limit of the active agents, the number of allocated agents
+     * @param initialAgents number of active agents to start with, clamped to the limits
+     */
+    public AgentBudget(int minAgents, int maxAgents, int initialAgents) {
+        this.minAgents = Math.min(minAgents, maxAgents);
+        this.maxAgents = maxAgents;
+        this.activeAgents = clamp(initialAgents);
+    }
+
+    /**
+     * adds the time of some steps run with the current count, adjusts the count once enough steps were measured
+     *
+     * @param millis time of the steps in milliseconds
+     * @param steps number of steps the time covers
+     * @param targetMillis time one step should take in milliseconds
+     * @return true if the number of active agents changed
+     */
+    public boolean record(double millis, int steps, float targetMillis) {
+        measuredTime += millis;
+        measuredSteps += steps;
+        if(measuredSteps < INTERVAL) {
+            return false;
+        }
+        double stepTime = measuredTime / measuredSteps;
+        measuredTime = 0;
+        measuredSteps = 0;
+
+        double ratio = targetMillis / Math.max(stepTime, 1e-6);
+        if(Math.abs(ratio - 1) < TOLERANCE) {
+            return false;
+        }
+        double factor = Math.max(MAX_SHRINK, Math.min(MAX_GROWTH, 1 + GAIN * (ratio - 1)));
+        int adjusted = clamp((int) Math.round(activeAgents * factor));
+        if(adjusted == activeAgents) {
+            return false;
+        }
+        activeAgents = adjusted;
+        return true;
+    }
+
+    /**
+     * @return current number of active agents
+     */
+    public int getActiveAgents() {
+        return activeAgents;
+    }
+
+    /**
+     * @return count limited to the configured range
+     */
+    private int clamp(int count) {
+        return Math.max(minAgents, Math.min(maxAgents, count));
+    }
+}
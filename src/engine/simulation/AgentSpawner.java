@@ -0,0 +1,62 @@
+package engine.simulation;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * creates the agents of a simulation in parallel.
+ * The agent range is split over a fork join pool and every task writes its agents
+ * directly into the off-heap agent store
+ */
+public class AgentSpawner {
+
+    /** number of agents placed by one task */
+    private static final int GRAIN = 65536;
+
+    /** pool the agents are created on */
+    private final ForkJoinPool pool;
+
+    /**
+     * creates a spawner that uses the common pool
+     */
+    public AgentSpawner() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool pool the agents are created on
+     */
+    public AgentSpawner(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * allocates a store and places all agents in it
+     *
+     * @param count number of agents
+     * @param distribution decides where the agents start
+     * @param seed seed of the run
+     * @return the agents
+     */
+    public AgentStore spawn(int count, SpawnDistribution distribution, int seed) {
+        AgentStore agents = new AgentStore(count);
+        spawn(agents, 0, count, distribution, seed);
+        return agents;
+    }
+
+    /**
+     * (re)places a range of agents of an existing store
+     *
+     * @param agents store the agents are written to
+     * @param from first agent
+     * @param to end of the agent range (exclusive)
+     * @param distribution decides where the agents start
+     * @param seed seed of the run
+     */
+    public void spawn(AgentStore agents, int from, int to, SpawnDistribution distribution, int seed) {
+        ParallelFor.run(pool, from, to, GRAIN, (start, end) -> {
+            for(int id = start; id < end; id++) {
+                distribution.place(agents, id, seed);
+            }
+        });
+    }
+}
@@ -0,0 +1,187 @@
+package engine.simulation;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * stores the agents of the simulation as a structure of arrays:
+ * one column per attribute instead of one interleaved array.
+ * loops that only need the positions or headings read contiguous memory.
+ *
+ * Every column lives in its own off-heap buffer allocated with MemoryUtil
+ * (x column, y column, heading column, species column), so the java code
+ * and the shader storage buffer upload work on the same memory and the
+ * agents do not put any pressure on the java heap. A java buffer holds at most 2 GB,
+ * with one buffer per column the store holds up to MAX_COUNT agents. The gpu backend
+ * uploads the columns in chunks of agents, one shader storage buffer per chunk
+ */
+public class AgentStore {
+
+    /** number of attribute columns */
+    public static final int COLUMNS = 4;
+
+    /** largest number of agents a store can hold, limited by the size of one column buffer */
+    public static final int MAX_COUNT = Integer.MAX_VALUE / Float.BYTES;
+
+    /** number of agents in the store */
+    private final int count;
+
+    /** off-heap memory of the columns */
+    private final ByteBuffer[] data = new ByteBuffer[COLUMNS];
+
+    /** x positions */
+    private final FloatBuffer x;
+
+    /** y positions */
+    private final FloatBuffer y;
+
+    /** headings in radians */
+    private final FloatBuffer angle;
+
+    /** species of the agents (0 or 1), stored as float for the shader */
+    private final FloatBuffer species;
+
+    /**
+     * creates a store with all agents at the origin
+     *
+     * @param count number of agents
+     */
+    public AgentStore(int count) {
+        if(count < 0 || count > MAX_COUNT) {
+            throw new IllegalArgumentException("A store holds up to " + MAX_COUNT + " agents, not " + count);
+        }
+        this.count = count;
+        for(int column = 0; column < COLUMNS; column++) {
+            data[column] = MemoryUtil.memCalloc(count, Float.BYTES);
+        }
+        x = column(0);
+        y = column(1);
+        angle = column(2);
+        species = column(3);
+    }
+
+    /**
+     * @param index index of the column
+     * @return float view of the buffer of one column
+     */
+    private FloatBuffer column(int index) {
+        return data[index].asFloatBuffer();
+    }
+
+    /**
+     * sets all attributes of one agent
+     *
+     * @param index index of the agent
+     * @param x x position
+     * @param y y position
+     * @param angle heading in radians
+     * @param species species of the agent
+     */
+    public void set(int index, float x, float y, float angle, int species) {
+        this.x.put(index, x);
+        this.y.put(index, y);
+        this.angle.put(index, angle);
+        this.species.put(index, species);
+    }
+
+    /**
+     * writes the agent columns to a checkpoint file, directly from the off-heap buffer
+     *
+     * @param file checkpoint file
+     * @throws IOException if the file cant be written
+     */
+    public void writeCheckpoint(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for(ByteBuffer column : data) {
+                ByteBuffer source = column.duplicate();
+                while(source.hasRemaining()) {
+                    channel.write(source);
+                }
+            }
+        }
+    }
+
+    /**
+     * reads the agent columns from a checkpoint file directly into the off-heap buffer
+     *
+     * @param file checkpoint file written by writeCheckpoint() with the same agent count
+     * @throws IOException if the file cant be read or has the wrong size
+     */
+    public void readCheckpoint(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if(channel.size() != (long) count * COLUMNS * Float.BYTES) {
+                throw new IOException("Checkpoint [" + file + "] does not contain " + count + " agents");
+            }
+            for(ByteBuffer column : data) {
+                ByteBuffer target = column.duplicate();
+                while(target.hasRemaining()) {
+                    if(channel.read(target) < 0) {
+                        throw new IOException("Unexpected end of checkpoint [" + file + "]");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of agents
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * view of a range of agents of one column, used for the upload of a chunk to the gpu
+     *
+     * @param column index of the column
+     * @param from first agent
+     * @param to end of the agent range (exclusive)
+     * @return the bytes of the range in the off-heap buffer of the column
+     */
+    public ByteBuffer getColumnData(int column, int from, int to) {
+        return MemoryUtil.memSlice(data[column], from * Float.BYTES, (to - from) * Float.BYTES);
+    }
+
+    /**
+     * @return x position column
+     */
+    public FloatBuffer getX() {
+        return x;
+    }
+
+    /**
+     * @return y position column
+     */
+    public FloatBuffer getY() {
+        return y;
+    }
+
+    /**
+     * @return heading column
+     */
+    public FloatBuffer getAngle() {
+        return angle;
+    }
+
+    /**
+     * @return species column
+     */
+    public FloatBuffer getSpecies() {
+        return species;
+    }
+
+    /**
+     * frees the off-heap memory, the store cant be used afterwards
+     */
+    public void free() {
+        for(ByteBuffer column : data) {
+            MemoryUtil.memFree(column);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package engine.simulation;
+
+/**
+ * what happens to an agent that steps over the edge of the trail map
+ */
+public enum BoundaryMode {
+
+    /**
+     * the position is clamped to the map and the agent gets a random heading, like the original shader
+     */
+    CLAMP_RANDOMIZE,
+
+    /**
+     * the position is clamped to the map and the heading is mirrored at the edge it crossed
+     */
+    CLAMP_REFLECT,
+
+    /**
+     * the map is a torus: the agents leave on one side and come back on the other,
+     * the sensor windows reach over the edges as well. the diffusion does not wrap
+     */
+    WRAP
+}
@@ -0,0 +1,57 @@
+package engine.simulation;
+
+/**
+ * stateless counter based random number generator.
+ * A random value is a hash of its key (seed, agent id, step, counter), so values can be
+ * generated in any order on any thread without shared state and every run with the same
+ * seed produces the same values. counterRandom() in compute.shader uses the same hash,
+ * the unsigned arithmetic of the shader matches the wrapping int arithmetic in java
+ */
+public class CounterRandom {
+
+    /** scales the upper 24 bits of a hash to [0, 1) */
+    private static final float FLOAT_SCALE = 1f / (1 << 24);
+
+    private CounterRandom() {
+    }
+
+    /**
+     * integer hash with good avalanche behaviour (lowbias32)
+     *
+     * @param value input value
+     * @return hashed value
+     */
+    static int mix(int value) {
+        value ^= value >>> 16;
+        value *= 0x7FEB352D;
+        value ^= value >>> 15;
+        value *= 0x846CA68B;
+        value ^= value >>> 16;
+        return value;
+    }
+
+    /**
+     * @param seed seed of the run
+     * @param id agent id
+     * @param step simulation step
+     * @param counter index of the value if several values are needed for the same agent and step
+     * @return random 32 bit value
+     */
+    public static int nextInt(int seed, int id, int step, int counter) {
+        int hash = mix(seed ^ 0x9E3779B9);
+        hash = mix(hash ^ id);
+        hash = mix(hash ^ step);
+        return mix(hash ^ counter);
+    }
+
+    /**
+     * @param seed seed of the run
+     * @param id agent id
+     * @param step simulation step
+     * @param counter index of the value if several values are needed for the same agent and step
+     * @return random value in [0, 1)
+     */
+    public static float nextFloat(int seed, int id, int step, int counter) {
+        return (nextInt(seed, id, step, counter) >>> 8) * FLOAT_SCALE;
+    }
+}
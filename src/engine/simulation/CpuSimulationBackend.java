@@ -0,0 +1,709 @@
+package engine.simulation;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * simulation backend that runs the agent step and the diffuse and evaporate pass
+ * in plain java on a fork join pool. It performs the same calculations as
+ * compute.shader and posProcessing.shader, so it can be used on machines without a gpu
+ */
+public class CpuSimulationBackend implements SimulationBackend {
+
+    /** number of agents processed by one task */
+    private static final int AGENT_GRAIN = 16384;
+
+    /** number of attraction field rows built by one task */
+    private static final int FIELD_GRAIN = 16;
+
+    /** pool the simulation runs on */
+    private final ForkJoinPool pool;
+
+    /** diffuse and evaporate pass of posProcessing.shader, vectorized if the vector api is available */
+    private final DiffusionStage diffusionStage;
+
+    /** collects the deposits if the deposit mode is not DIRECT */
+    private DepositStage depositStage;
+
+    /** agents of the simulation */
+    private AgentStore agents;
+
+    /** number of leading agents that are simulated, the others are parked */
+    private int activeAgents;
+
+    /** storage format of the trail maps */
+    private TrailPrecision precision;
+
+    /** channels stored per pixel of the trail maps */
+    private TrailLayout layout;
+
+    /** number of channels per pixel */
+    private int channels;
+
+    /** offset of the blue channel in a pixel */
+    private int blueOffset;
+
+    /** trail map the agents sense and deposit on, row major, null if the map is stored as shorts */
+    private float[] trailMap;
+
+    /** second trail map the diffusion writes to, swaps roles with trailMap every step */
+    private float[] backMap;
+
+    /** trail map as 16 bit unsigned normalized values, used instead of trailMap for the 16 bit precisions */
+    private short[] shortTrailMap;
+
+    /** second 16 bit trail map the diffusion writes to */
+    private short[] shortBackMap;
+
+    /** attraction of every pixel for species 0 (blue minus red), species 1 is attracted by the negated value */
+    private float[] attraction;
+
+    /** summed area table of the attraction field used for sensing if integral sensing is enabled */
+    private IntegralImage integralImage;
+
+    /** direction tables if the headings are quantized, null for continuous headings */
+    private HeadingTable headingTable;
+
+    /** tiles of the trail maps that may hold mass, null if every tile is diffused */
+    private ActiveTiles activeTiles;
+
+    /** per tile epochs of the lazy evaporation, null if the evaporation is always eager */
+    private LazyEvaporation lazyEvaporation;
+
+    /** agents grouped by tile for the fused step, created on the first fused step */
+    private FusedTiles fusedTiles;
+
+    /** sorts the agents by their z-order cell, created on the first sort */
+    private MortonSort mortonSort;
+
+    /** index of the next step, part of the key of the random numbers. step 0 is used by the agent creation */
+    private int stepIndex = 1;
+
+    /** trail map width in pixels */
+    private int width;
+
+    /** trail map height in pixels */
+    private int height;
+
+    /**
+     * creates the backend with one worker per available processor
+     */
+    public CpuSimulationBackend() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param parallelism number of worker threads
+     */
+    public CpuSimulationBackend(int parallelism) {
+        pool = new ForkJoinPool(parallelism);
+        diffusionStage = new DiffusionStage(pool, DiffuseKernel.create());
+    }
+
+    @Override
+    public void init(SimulationSettings settings, AgentStore agents) {
+        this.width = settings.getWidth();
+        this.height = settings.getHeight();
+        this.agents = agents;
+        this.activeAgents = agents.getCount();
+        this.precision = settings.getTrailPrecision();
+        this.layout = settings.getTrailLayout();
+        this.channels = layout.getChannels();
+        this.blueOffset = layout.getBlueOffset();
+        if(precision.isShort()) {
+            this.shortTrailMap = new short[width * height * channels];
+            this.shortBackMap = new short[width * height * channels];
+        } else {
+            this.trailMap = new float[width * height * channels];
+            this.backMap = new float[width * height * channels];
+        }
+        this.attraction = new float[width * height];
+        this.depositStage = new DepositStage(pool, width, height);
+        if(settings.isActiveTiles() && settings.getTileSize() > 0) {
+            this.activeTiles = new ActiveTiles(width, height, settings.getTileSize());
+        }
+        if(settings.isLazyEvaporation()) {
+            this.lazyEvaporation = new LazyEvaporation(width, height, channels, stepIndex);
+        }
+    }
+
+    @Override
+    public void step(SimulationSettings settings) {
+        if(settings.getSortInterval() > 0 && stepIndex % settings.getSortInterval() == 0) {
+            if(mortonSort == null) {
+                mortonSort = new MortonSort(agents.getCount(), width, height);
+            }
+            mortonSort.sort(pool, agents, activeAgents);
+        }
+        if(settings.isFusedStep() && settings.getTileSize() > 0 && !settings.isIntegralSensing()) {
+            fusedStep(settings);
+            stepIndex++;
+            return;
+        }
+
+        boolean lazy = lazyEvaporation != null && settings.getDiffuseSpeed() * settings.getDeltaTime() == 0 && !settings.isIntegralSensing();
+        if(lazy) {
+            prepareLazyStep(settings);
+        } else {
+            if(lazyEvaporation != null) {
+                materializeAll();
+            }
+            ParallelFor.run(pool, 0, height, FIELD_GRAIN, this::buildAttractionField);
+        }
+        if(settings.isIntegralSensing()) {
+            if(settings.getSensorSize() > IntegralImage.MAX_SENSOR_SIZE) {
+                throw new IllegalStateException("Integral sensing supports a sensorSize of up to " + IntegralImage.MAX_SENSOR_SIZE);
+            }
+            if(integralImage == null) {
+                integralImage = new IntegralImage(width, height);
+            }
+            integralImage.build(pool, attraction);
+        }
+        updateHeadingTable(settings);
+        ParallelFor.run(pool, 0, activeAgents, AGENT_GRAIN, (from, to) -> updateAgents(settings, null, from, to, -1));
+        if(settings.getDepositMode() != DepositMode.DIRECT) {
+            if(precision.isShort()) {
+                depositStage.merge(settings.getDepositMode(), (pixel, species0, species1) -> DepositStage.apply(shortTrailMap, channels, pixel, species0, species1));
+            } else {
+                depositStage.merge(settings.getDepositMode(), (pixel, species0, species1) -> DepositStage.apply(trailMap, channels, pixel, species0, species1));
+            }
+        }
+
+        if(lazy) {
+            // the evaporation of this step is applied when the tiles are needed again
+            lazyEvaporation.clearTouched();
+            if(activeTiles != null) {
+                activeTiles.markAll();
+            }
+            stepIndex++;
+            return;
+        }
+
+        if(precision.isShort()) {
+            diffusionStage.run(shortTrailMap, shortBackMap, settings, activeTiles);
+
+            short[] diffused = shortBackMap;
+            shortBackMap = shortTrailMap;
+            shortTrailMap = diffused;
+        } else {
+            diffusionStage.run(trailMap, backMap, settings, activeTiles);
+
+            float[] diffused = backMap;
+            backMap = trailMap;
+            trailMap = diffused;
+        }
+        if(activeTiles != null) {
+            activeTiles.swap();
+        }
+        if(lazyEvaporation != null) {
+            lazyEvaporation.reset(stepIndex + 1);
+        }
+
+        stepIndex++;
+    }
+
+    /**
+     * creates or updates the direction tables if the headings are quantized
+     *
+     * @param settings simulation parameters
+     */
+    private void updateHeadingTable(SimulationSettings settings) {
+        if(settings.getHeadingResolution() > 0) {
+            if(headingTable == null || headingTable.getResolution() != settings.getHeadingResolution()) {
+                headingTable = new HeadingTable(settings.getHeadingResolution());
+            }
+            headingTable.update(settings.getSensorOffsetDist());
+        } else {
+            headingTable = null;
+        }
+    }
+
+    /**
+     * step that makes one pass over the trail map: the map is diffused tile by tile into the back map,
+     * and right after a tile the agents in it sense, move and deposit, while the tile is still in the cache.
+     * There is no attraction field, the agents sense blue minus red on the map that was diffused, which nobody
+     * writes during the step. Their deposits go into the diffused map, so unlike the two pass step the deposits
+     * of a step are not blurred and evaporated in the same step but in the next one. Deposits that leave the
+     * tile of their agent are added after all tiles. The deposit mode is not used, no deposit gets lost
+     *
+     * @param settings simulation parameters
+     */
+    private void fusedStep(SimulationSettings settings) {
+        if(lazyEvaporation != null) {
+            materializeAll();
+        }
+        updateHeadingTable(settings);
+        if(fusedTiles == null || fusedTiles.getTileSize() != settings.getTileSize() || fusedTiles.getCount() != agents.getCount()) {
+            fusedTiles = new FusedTiles(pool, agents.getCount(), width, height, settings.getTileSize());
+        }
+        fusedTiles.assign(pool, agents, activeAgents);
+
+        // the back map becomes the front map the agents deposit on, the old front map is the read only source
+        DiffusionStage.TileTask moveAgents = (fromX, toX, fromRow, toRow) -> {
+            int tile = fusedTiles.tileIndex(fromX, fromRow);
+            updateAgents(settings, fusedTiles.getOrder(), fusedTiles.firstAgent(tile), fusedTiles.endAgent(tile), tile);
+        };
+        if(precision.isShort()) {
+            short[] source = shortTrailMap;
+            shortTrailMap = shortBackMap;
+            shortBackMap = source;
+            diffusionStage.run(shortBackMap, shortTrailMap, settings, null, moveAgents);
+        } else {
+            float[] source = trailMap;
+            trailMap = backMap;
+            backMap = source;
+            diffusionStage.run(backMap, trailMap, settings, null, moveAgents);
+        }
+        fusedTiles.applyDeferred(this::deposit);
+
+        if(activeTiles != null) {
+            activeTiles.markAll();
+        }
+        if(lazyEvaporation != null) {
+            lazyEvaporation.reset(stepIndex + 1);
+        }
+    }
+
+    /**
+     * start of a step with lazy evaporation: brings the tiles within reach of the agents up to date
+     * and builds the attraction field only on them. the agents neither sense nor deposit outside of these tiles
+     *
+     * @param settings simulation parameters
+     */
+    private void prepareLazyStep(SimulationSettings settings) {
+        float scale = precision.isShort() ? settings.getDeltaTime() * ShortDiffuseKernel.ONE : settings.getDeltaTime();
+        float[] evaporate = layout.evaporation(settings.getEvaporateSpeed(), scale);
+        if(lazyEvaporation.changesEvaporation(evaporate)) {
+            materializeAll();
+        }
+        lazyEvaporation.setEvaporation(evaporate);
+
+        // sensor window, the move of one pixel and the truncation of the positions
+        int reach = (int) Math.ceil(settings.getSensorOffsetDist()) + settings.getSensorSize() + 2;
+        boolean wrap = settings.getBoundaryMode() == BoundaryMode.WRAP;
+        FloatBuffer agentX = agents.getX();
+        FloatBuffer agentY = agents.getY();
+        ParallelFor.run(pool, 0, activeAgents, AGENT_GRAIN, (from, to) -> {
+            for(int id = from; id < to; id++) {
+                lazyEvaporation.touch((int) agentX.get(id), (int) agentY.get(id), reach, wrap);
+            }
+        });
+
+        if(precision.isShort()) {
+            lazyEvaporation.materialize(pool, shortTrailMap, stepIndex, true, this::buildAttractionTile);
+        } else {
+            lazyEvaporation.materialize(pool, trailMap, stepIndex, true, this::buildAttractionTile);
+        }
+    }
+
+    /**
+     * applies the pending lazy evaporation to every tile, so the trail map equals the one of the eager evaporation
+     */
+    private void materializeAll() {
+        if(precision.isShort()) {
+            lazyEvaporation.materialize(pool, shortTrailMap, stepIndex, false, null);
+        } else {
+            lazyEvaporation.materialize(pool, trailMap, stepIndex, false, null);
+        }
+    }
+
+    @Override
+    public void setActiveAgents(int count) {
+        activeAgents = Math.max(0, Math.min(agents.getCount(), count));
+    }
+
+    /**
+     * agent step of compute.shader: sense, steer, move and deposit.
+     * with the DIRECT deposit mode the deposit is a plain read and write like in the shader, so agents
+     * depositing on the same pixel at the same time can lose updates. the other modes collect
+     * the deposits in the deposit stage, they are added to the trail map after all agents moved
+     *
+     * @param settings simulation parameters
+     * @param order agent ids, null to update the agents from to to
+     * @param from first agent, index in order if given
+     * @param to end of the agent range (exclusive)
+     * @param fusedTile tile of the agents in the fused step, -1 outside of the fused step
+     */
+    private void updateAgents(SimulationSettings settings, int[] order, int from, int to, int fusedTile) {
+        float deltaTime = settings.getDeltaTime();
+        float turnSpeed = settings.getTurnSpeed();
+        float sensorAngleSpacing = settings.getSensorAngleSpacing();
+        int seed = settings.getSeed();
+        FloatBuffer agentX = agents.getX();
+        FloatBuffer agentY = agents.getY();
+        FloatBuffer agentAngle = agents.getAngle();
+        FloatBuffer agentSpecies = agents.getSpecies();
+
+        float sensorOffsetDist = settings.getSensorOffsetDist();
+        HeadingTable table = headingTable;
+        int sensorSteps = table != null ? table.steps(sensorAngleSpacing) : 0;
+        DepositMode depositMode = settings.getDepositMode();
+        BoundaryMode boundaryMode = settings.getBoundaryMode();
+        DepositStage.Buffer depositBuffer = depositMode != DepositMode.DIRECT && fusedTile < 0 ? depositStage.buffer(depositMode) : null;
+
+        boolean fused = fusedTile >= 0;
+        for(int i = from; i < to; i++) {
+            int id = order != null ? order[i] : i;
+            float x = agentX.get(id);
+            float y = agentY.get(id);
+            float angle = agentAngle.get(id);
+            int species = (int) agentSpecies.get(id);
+
+            float weightForward;
+            float weightLeft;
+            float weightRight;
+            if(table != null) {
+                int heading = table.index(angle);
+                weightForward = sense(settings, fused, x + table.sensorX(heading), y + table.sensorY(heading), species);
+                weightLeft = sense(settings, fused, x + table.sensorX(heading + sensorSteps), y + table.sensorY(heading + sensorSteps), species);
+                weightRight = sense(settings, fused, x + table.sensorX(heading - sensorSteps), y + table.sensorY(heading - sensorSteps), species);
+            } else {
+                weightForward = sense(settings, fused, x + (float) Math.cos(angle) * sensorOffsetDist, y + (float) Math.sin(angle) * sensorOffsetDist, species);
+                float leftAngle = angle + sensorAngleSpacing;
+                weightLeft = sense(settings, fused, x + (float) Math.cos(leftAngle) * sensorOffsetDist, y + (float) Math.sin(leftAngle) * sensorOffsetDist, species);
+                float rightAngle = angle - sensorAngleSpacing;
+                weightRight = sense(settings, fused, x + (float) Math.cos(rightAngle) * sensorOffsetDist, y + (float) Math.sin(rightAngle) * sensorOffsetDist, species);
+            }
+
+            float randomSteerStrength = CounterRandom.nextFloat(seed, id, stepIndex, 0);
+
+            // the heading stays if the forward sensor is the strongest
+            if(weightForward <= weightLeft || weightForward <= weightRight) {
+                if(weightForward < weightLeft && weightForward < weightRight) {
+                    angle += (randomSteerStrength - 0.5f) * 2 * turnSpeed * deltaTime;
+                } else if(weightRight > weightLeft) {
+                    angle -= randomSteerStrength * turnSpeed * deltaTime;
+                } else if(weightRight < weightLeft) {
+                    angle += randomSteerStrength * turnSpeed * deltaTime;
+                }
+            }
+
+            float newX;
+            float newY;
+            if(table != null) {
+                int heading = table.index(angle);
+                newX = x + table.directionX(heading);
+                newY = y + table.directionY(heading);
+            } else {
+                newX = x + (float) Math.cos(angle);
+                newY = y + (float) Math.sin(angle);
+            }
+
+            if(boundaryMode == BoundaryMode.WRAP) {
+                newX = wrap(newX, width);
+                newY = wrap(newY, height);
+            } else if(newX < 0 || newX >= width || newY < 0 || newY >= height) {
+                if(boundaryMode == BoundaryMode.CLAMP_REFLECT) {
+                    if(newX < 0 || newX >= width) {
+                        angle = (float) Math.PI - angle;
+                    }
+                    if(newY < 0 || newY >= height) {
+                        angle = -angle;
+                    }
+                } else {
+                    angle = randomSteerStrength * 2 * 3.14159f;
+                }
+                newX = Math.min(width - 1, Math.max(0, newX));
+                newY = Math.min(height - 1, Math.max(0, newY));
+            }
+
+            agentX.put(id, newX);
+            agentY.put(id, newY);
+            agentAngle.put(id, angle);
+
+            if(fused) {
+                if(fusedTiles.tileIndex((int) newX, (int) newY) == fusedTile) {
+                    deposit((int) newX, (int) newY, species);
+                } else {
+                    fusedTiles.defer((int) newX, (int) newY, species);
+                }
+            } else if(depositBuffer != null) {
+                depositStage.add(depositMode, depositBuffer, (int) newX, (int) newY, species);
+            } else {
+                deposit((int) newX, (int) newY, species);
+            }
+            if(activeTiles != null) {
+                activeTiles.mark((int) newX, (int) newY);
+            }
+        }
+    }
+
+    /**
+     * writes the attraction field of a range of rows. The sensors of species 0 sum up blue minus red,
+     * the ones of species 1 red minus blue, so one signed field serves both species
+     * and the sensors read one float per sample instead of two channels
+     *
+     * @param fromRow first row
+     * @param toRow end of the row range (exclusive)
+     */
+    private void buildAttractionField(int fromRow, int toRow) {
+        buildAttractionRange(fromRow * width, toRow * width);
+    }
+
+    /**
+     * writes the attraction field of a tile, used by the lazy evaporation that only builds the touched tiles
+     *
+     * @param fromX first column
+     * @param toX end of the column range (exclusive)
+     * @param fromRow first row
+     * @param toRow end of the row range (exclusive)
+     */
+    private void buildAttractionTile(int fromX, int toX, int fromRow, int toRow) {
+        for(int y = fromRow; y < toRow; y++) {
+            buildAttractionRange(y * width + fromX, y * width + toX);
+        }
+    }
+
+    /**
+     * @param from first pixel
+     * @param to end of the pixel range (exclusive)
+     */
+    private void buildAttractionRange(int from, int to) {
+        if(precision.isShort()) {
+            for(int i = from; i < to; i++) {
+                attraction[i] = ((shortTrailMap[i * channels + blueOffset] & ShortDiffuseKernel.ONE) - (shortTrailMap[i * channels] & ShortDiffuseKernel.ONE)) * (1f / ShortDiffuseKernel.ONE);
+            }
+            return;
+        }
+        for(int i = from; i < to; i++) {
+            attraction[i] = trailMap[i * channels + blueOffset] - trailMap[i * channels];
+        }
+    }
+
+    /**
+     * sums up the attraction in the sensor window, same as sense() in compute.shader.
+     * with integral sensing the sum is read from the summed area table.
+     * both are built at the start of the step, so they do not contain the deposits
+     * of agents that moved earlier in the same step. with the WRAP boundary the window
+     * is split at the map edges into up to four rectangles, which are summed without bounds checks
+     *
+     * @param settings simulation parameters
+     * @param fused true in the fused step, which reads blue minus red from the back map instead of the attraction field
+     * @param sensorX x of the sensor position
+     * @param sensorY y of the sensor position
+     * @param species species of the sensing agent
+     * @return weight of the sensor direction
+     */
+    private float sense(SimulationSettings settings, boolean fused, float sensorX, float sensorY, int species) {
+        int sensorSize = settings.getSensorSize();
+        int centreX = (int) sensorX;
+        int centreY = (int) sensorY;
+
+        if(settings.getBoundaryMode() == BoundaryMode.WRAP) {
+            float sum = wrappedWindowSum(settings, fused, centreX - sensorSize, centreY - sensorSize, centreX + sensorSize, centreY + sensorSize);
+            return species == 0 ? sum : -sum;
+        }
+
+        if(fused) {
+            float sum = senseTrailMap(centreX - sensorSize, centreY - sensorSize, centreX + sensorSize, centreY + sensorSize);
+            return species == 0 ? sum : -sum;
+        }
+
+        if(settings.isIntegralSensing()) {
+            float sum = integralImage.windowSum(centreX - sensorSize, centreY - sensorSize, centreX + sensorSize, centreY + sensorSize);
+            return species == 0 ? sum : -sum;
+        }
+
+        float sum = 0;
+
+        for(int offsetY = -sensorSize; offsetY <= sensorSize; offsetY++) {
+            for(int offsetX = -sensorSize; offsetX <= sensorSize; offsetX++) {
+                int posX = centreX + offsetX;
+                int posY = centreY + offsetY;
+
+                if(posX >= 0 && posX < width && posY >= 0 && posY < height) {
+                    sum += attraction[posY * width + posX];
+                }
+            }
+        }
+        return species == 0 ? sum : -sum;
+    }
+
+    /**
+     * sum of a sensor window on the torus
+     *
+     * @param settings simulation parameters
+     * @param fused true in the fused step
+     * @param fromX first column of the window, may be outside of the map
+     * @param fromY first row of the window, may be outside of the map
+     * @param toX last column of the window (inclusive)
+     * @param toY last row of the window (inclusive)
+     * @return sum of the window, windows larger than the map count every pixel once
+     */
+    private float wrappedWindowSum(SimulationSettings settings, boolean fused, int fromX, int fromY, int toX, int toY) {
+        int x0 = Math.floorMod(fromX, width);
+        int y0 = Math.floorMod(fromY, height);
+        int x1 = x0 + toX - fromX;
+        int y1 = y0 + toY - fromY;
+        int endX = Math.min(x1, width - 1);
+        int endY = Math.min(y1, height - 1);
+        // the parts over the right and the bottom edge continue at column and row 0
+        int wrappedX = Math.min(x1 - width, x0 - 1);
+        int wrappedY = Math.min(y1 - height, y0 - 1);
+
+        float sum = windowSum(settings, fused, x0, y0, endX, endY);
+        if(wrappedX >= 0) {
+            sum += windowSum(settings, fused, 0, y0, wrappedX, endY);
+        }
+        if(wrappedY >= 0) {
+            sum += windowSum(settings, fused, x0, 0, endX, wrappedY);
+            if(wrappedX >= 0) {
+                sum += windowSum(settings, fused, 0, 0, wrappedX, wrappedY);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @param settings simulation parameters
+     * @param fused true in the fused step
+     * @param fromX first column, inside of the map
+     * @param fromY first row, inside of the map
+     * @param toX last column (inclusive), inside of the map
+     * @param toY last row (inclusive), inside of the map
+     * @return sum of the sensed values in the rectangle
+     */
+    private float windowSum(SimulationSettings settings, boolean fused, int fromX, int fromY, int toX, int toY) {
+        if(fused) {
+            return senseTrailMap(fromX, fromY, toX, toY);
+        }
+        if(settings.isIntegralSensing()) {
+            return integralImage.windowSum(fromX, fromY, toX, toY);
+        }
+        float sum = 0;
+        for(int posY = fromY; posY <= toY; posY++) {
+            int row = posY * width;
+            for(int posX = fromX; posX <= toX; posX++) {
+                sum += attraction[row + posX];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @param value coordinate
+     * @param size map size along the coordinate
+     * @return value moved into [0, size) on the torus
+     */
+    private static float wrap(float value, int size) {
+        float wrapped = value - size * (float) Math.floor(value / size);
+        // a value just below 0 can round up to size
+        return Math.min(wrapped, Math.nextDown((float) size));
+    }
+
+    /**
+     * sums up blue minus red of the back map in a window, the sensing of the fused step
+     *
+     * @param fromX first column of the window
+     * @param fromY first row of the window
+     * @param toX last column of the window (inclusive)
+     * @param toY last row of the window (inclusive)
+     * @return sum of the pixels of the window inside of the map
+     */
+    private float senseTrailMap(int fromX, int fromY, int toX, int toY) {
+        fromX = Math.max(0, fromX);
+        fromY = Math.max(0, fromY);
+        toX = Math.min(width - 1, toX);
+        toY = Math.min(height - 1, toY);
+        float sum = 0;
+        if(precision.isShort()) {
+            for(int posY = fromY; posY <= toY; posY++) {
+                for(int posX = fromX; posX <= toX; posX++) {
+                    int index = (posY * width + posX) * channels;
+                    sum += ((shortBackMap[index + blueOffset] & ShortDiffuseKernel.ONE) - (shortBackMap[index] & ShortDiffuseKernel.ONE)) * (1f / ShortDiffuseKernel.ONE);
+                }
+            }
+            return sum;
+        }
+        for(int posY = fromY; posY <= toY; posY++) {
+            for(int posX = fromX; posX <= toX; posX++) {
+                int index = (posY * width + posX) * channels;
+                sum += backMap[index + blueOffset] - backMap[index];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * writes the trail of one agent into the trail map.
+     * species 0 adds to blue, species 1 to red, both add to green if the layout stores it
+     */
+    private void deposit(int x, int y, int species) {
+        int index = (y * width + x) * channels;
+        int depositIndex = species == 0 ? index + blueOffset : index;
+        if(precision.isShort()) {
+            short[] map = shortTrailMap;
+            int limit = species == 0 ? DepositStage.SHORT_BLUE_LIMIT : ShortDiffuseKernel.ONE;
+            map[depositIndex] = (short) Math.min(limit, (map[depositIndex] & ShortDiffuseKernel.ONE) + DepositStage.SHORT_AMOUNT);
+            if(channels == 4) {
+                map[index + 1] = (short) Math.min(ShortDiffuseKernel.ONE, (map[index + 1] & ShortDiffuseKernel.ONE) + DepositStage.SHORT_AMOUNT);
+                map[index + 3] = (short) ShortDiffuseKernel.ONE;
+            }
+            return;
+        }
+        trailMap[depositIndex] = Math.min(species == 0 ? 0.8f : 1, trailMap[depositIndex] + 0.05f);
+        if(channels == 4) {
+            trailMap[index + 1] = Math.min(1, trailMap[index + 1] + 0.05f);
+            trailMap[index + 3] = 1;
+        }
+    }
+
+    /**
+     * @return the trail map holding the result of the last step, row major, with the channels of the layout.
+     * null if the map is stored with a 16 bit precision, see getShortTrailMap(). applies a pending lazy evaporation
+     */
+    public float[] getTrailMap() {
+        if(lazyEvaporation != null && trailMap != null) {
+            materializeAll();
+        }
+        return trailMap;
+    }
+
+    /**
+     * @return the trail map as 16 bit unsigned normalized values if a 16 bit precision is used, otherwise null.
+     * applies a pending lazy evaporation
+     */
+    public short[] getShortTrailMap() {
+        if(lazyEvaporation != null && shortTrailMap != null) {
+            materializeAll();
+        }
+        return shortTrailMap;
+    }
+
+    /**
+     * @return flags of the tiles that may hold mass, null if active tiles are disabled
+     */
+    public ActiveTiles getActiveTiles() {
+        return activeTiles;
+    }
+
+    /**
+     * @return channels stored per pixel of the trail map
+     */
+    public TrailLayout getTrailLayout() {
+        return layout;
+    }
+
+    /**
+     * @return trail map width in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return trail map height in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void cleanup() {
+        pool.shutdown();
+        if(mortonSort != null) {
+            mortonSort.free();
+            mortonSort = null;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package engine.simulation;
+
+/**
+ * how the agents write their trail into the trail map
+ */
+public enum DepositMode {
+
+    /**
+     * plain read and write of the pixel, like the original shader.
+     * agents depositing on the same pixel at the same time can lose updates
+     */
+    DIRECT,
+
+    /**
+     * every worker thread counts the deposits in its own buffer,
+     * the buffers are merged into the trail map after the agent step.
+     * the gpu backend has no per thread buffers and uses ATOMIC instead
+     */
+    PRIVATE_BUFFERS,
+
+    /**
+     * all agents count the deposits in one buffer with atomic adds
+     * (VarHandle on the cpu, imageAtomicAdd on a r32ui texture on the gpu),
+     * the buffer is merged into the trail map after the agent step
+     */
+    ATOMIC
+}
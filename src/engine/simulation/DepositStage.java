@@ -0,0 +1,302 @@
+package engine.simulation;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * collects the deposits of the agents as counts, one value per species and pixel,
+ * and adds them to the trail map after the agent step. Integer adds are order independent,
+ * so no deposit is lost and the result does not depend on the thread count.
+ * The merge multiplies the counts with DEPOSIT, an int holds far more deposits per pixel than the clamp lets through.
+ *
+ * The deposit of the shader clamps every channel after each add. Since the clamp is monotone,
+ * adding the summed amount once and clamping gives the same value as adding the amounts one after the other.
+ * deposit.shader merges the atomic buffer of the gpu backend the same way.
+ *
+ * Every worker of the pool counts into its own private buffer without locking. A private buffer is split
+ * into bands of TILE_SIZE rows that are allocated when the worker first deposits in them, so the memory
+ * grows with the part of the map the agents of a worker reach and not with the number of workers times the map.
+ * The shared buffer of the atomic adds is allocated completely.
+ * Every buffer flags the tiles it was deposited on, the merge only visits the flagged tiles
+ * and only sums the buffers that flagged them
+ */
+class DepositStage {
+
+    /** amount one agent deposits per step */
+    static final float DEPOSIT = 0.05f;
+
+    /** amount one agent deposits as 16 bit unsigned normalized value */
+    static final int SHORT_AMOUNT = Math.round(DEPOSIT * ShortDiffuseKernel.ONE);
+
+    /** limit of the blue channel (0.8) as 16 bit unsigned normalized value */
+    static final int SHORT_BLUE_LIMIT = Math.round(0.8f * ShortDiffuseKernel.ONE);
+
+    /** edge length of the tiles the buffers flag in pixels, also the height of the bands of the buffers. one tile row is merged by one task */
+    private static final int TILE_SIZE = 16;
+
+    /** atomic access to the elements of the shared buffer */
+    private static final VarHandle ELEMENTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    /** pool the merge runs on */
+    private final ForkJoinPool pool;
+
+    /** map width in pixels */
+    private final int width;
+
+    /** map height in pixels */
+    private final int height;
+
+    /** number of tiles in a row */
+    private final int tilesX;
+
+    /** number of tile rows */
+    private final int tilesY;
+
+    /** buffer of the atomic adds, created on first use */
+    private volatile Buffer shared;
+
+    /** private buffers of the workers of the pool */
+    private final WorkerSlots<Buffer> privateBuffers;
+
+    /**
+     * deposit counts of both species and the tiles they were added to
+     */
+    final class Buffer {
+
+        /** two counts per pixel (species 0, species 1), one array per band of TILE_SIZE rows, null until it is deposited on */
+        private final int[][] bands;
+
+        /** 1 for every tile that was deposited on since the last merge */
+        private final byte[] touched;
+
+        /**
+         * @param allocateBands true to allocate all bands up front, for the buffer several threads add to
+         */
+        private Buffer(boolean allocateBands) {
+            bands = new int[tilesY][];
+            touched = new byte[tilesX * tilesY];
+            if(allocateBands) {
+                for(int band = 0; band < tilesY; band++) {
+                    bands[band] = createBand(band);
+                }
+            }
+        }
+
+        /**
+         * @param band band index
+         * @return band array, allocated on first use
+         */
+        private int[] band(int band) {
+            int[] counts = bands[band];
+            if(counts == null) {
+                counts = createBand(band);
+                bands[band] = counts;
+            }
+            return counts;
+        }
+
+        /**
+         * @param band band index
+         * @return zeroed counts of the rows of the band
+         */
+        private int[] createBand(int band) {
+            return new int[Math.min(TILE_SIZE, height - band * TILE_SIZE) * width * 2];
+        }
+    }
+
+    /**
+     * @param pool pool the merge runs on
+     * @param width map width in pixels
+     * @param height map height in pixels
+     */
+    DepositStage(ForkJoinPool pool, int width, int height) {
+        this.pool = pool;
+        this.width = width;
+        this.height = height;
+        this.tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        this.tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        this.privateBuffers = new WorkerSlots<>(pool, () -> new Buffer(false));
+    }
+
+    /**
+     * returns the buffer the current thread adds its deposits to. In PRIVATE_BUFFERS mode that is the buffer
+     * of the worker, which only the worker itself adds to, so an agent range can keep it until it is done
+     *
+     * @param mode PRIVATE_BUFFERS or ATOMIC
+     * @return buffer for add()
+     */
+    Buffer buffer(DepositMode mode) {
+        if(mode == DepositMode.PRIVATE_BUFFERS) {
+            return privateBuffers.get();
+        }
+        Buffer buffer = shared;
+        if(buffer == null) {
+            synchronized(this) {
+                buffer = shared;
+                if(buffer == null) {
+                    buffer = new Buffer(true);
+                    shared = buffer;
+                }
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * adds the deposit of one agent
+     *
+     * @param mode PRIVATE_BUFFERS or ATOMIC
+     * @param buffer buffer returned by buffer()
+     * @param x x of the pixel
+     * @param y y of the pixel
+     * @param species species of the agent
+     */
+    void add(DepositMode mode, Buffer buffer, int x, int y, int species) {
+        int band = y / TILE_SIZE;
+        int index = ((y - band * TILE_SIZE) * width + x) * 2 + species;
+        if(mode == DepositMode.ATOMIC) {
+            ELEMENTS.getAndAdd(buffer.bands[band], index, 1);
+        } else {
+            buffer.band(band)[index]++;
+        }
+        // several threads may flag the same tile of the shared buffer, they all write the same value
+        buffer.touched[band * tilesX + x / TILE_SIZE] = 1;
+    }
+
+    /**
+     * adds the summed deposits of one pixel to the trail map
+     */
+    interface PixelDeposit {
+
+        /**
+         * @param pixel index of the pixel
+         * @param species0 number of deposits of species 0
+         * @param species1 number of deposits of species 1
+         */
+        void apply(int pixel, int species0, int species1);
+    }
+
+    /**
+     * adds all collected deposits to the trail map and clears the buffers
+     *
+     * @param mode mode the deposits were collected with
+     * @param trailMap applies the summed deposits of a pixel to the trail map
+     */
+    void merge(DepositMode mode, PixelDeposit trailMap) {
+        Buffer[] buffers;
+        if(mode == DepositMode.ATOMIC) {
+            if(shared == null) {
+                return;
+            }
+            buffers = new Buffer[] {shared};
+        } else {
+            buffers = privateBuffers.all().toArray(new Buffer[0]);
+        }
+        ParallelFor.run(pool, 0, tilesY, 1, (fromTileY, toTileY) -> {
+            // the buffers that flagged the current tile, the tasks work on different tile rows
+            Buffer[] touching = new Buffer[buffers.length];
+            for(int tileY = fromTileY; tileY < toTileY; tileY++) {
+                for(int tileX = 0; tileX < tilesX; tileX++) {
+                    int tile = tileY * tilesX + tileX;
+                    int count = 0;
+                    for(Buffer buffer : buffers) {
+                        if(buffer.touched[tile] != 0) {
+                            buffer.touched[tile] = 0;
+                            touching[count++] = buffer;
+                        }
+                    }
+                    if(count > 0) {
+                        mergeTile(touching, count, tileX * TILE_SIZE, tileY, trailMap);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * adds the deposits of the buffers in one tile to the trail map and clears them
+     *
+     * @param buffers buffers that were deposited on in the tile
+     * @param count number of buffers
+     * @param fromX first column of the tile
+     * @param band tile row, the band of the buffers the tile lies in
+     * @param trailMap applies the summed deposits of a pixel to the trail map
+     */
+    private void mergeTile(Buffer[] buffers, int count, int fromX, int band, PixelDeposit trailMap) {
+        int toX = Math.min(width, fromX + TILE_SIZE);
+        int fromRow = band * TILE_SIZE;
+        int toRow = Math.min(height, fromRow + TILE_SIZE);
+        for(int y = fromRow; y < toRow; y++) {
+            int bandOffset = (y - fromRow) * width;
+            for(int x = fromX; x < toX; x++) {
+                int i = (bandOffset + x) * 2;
+                int species0 = 0;
+                int species1 = 0;
+                for(int b = 0; b < count; b++) {
+                    int[] counts = buffers[b].bands[band];
+                    species0 += counts[i];
+                    species1 += counts[i + 1];
+                    counts[i] = 0;
+                    counts[i + 1] = 0;
+                }
+                if((species0 | species1) != 0) {
+                    trailMap.apply(y * width + x, species0, species1);
+                }
+            }
+        }
+    }
+
+    /**
+     * adds the summed deposits of one pixel like the deposit of compute.shader:
+     * species 0 adds to blue, species 1 to red, both add to green if the layout stores it
+     *
+     * @param trailMap trail map
+     * @param channels number of channels per pixel, 4 or 2
+     * @param pixel index of the pixel
+     * @param species0 number of deposits of species 0
+     * @param species1 number of deposits of species 1
+     */
+    static void apply(float[] trailMap, int channels, int pixel, int species0, int species1) {
+        float amount0 = species0 * DEPOSIT;
+        float amount1 = species1 * DEPOSIT;
+        int index = pixel * channels;
+        int blue = index + channels / 2;
+        trailMap[index] = Math.min(1, trailMap[index] + amount1);
+        trailMap[blue] = Math.min(0.8f, trailMap[blue] + amount0);
+        if(channels == 4) {
+            trailMap[index + 1] = Math.min(1, trailMap[index + 1] + amount0 + amount1);
+            trailMap[index + 3] = 1;
+        }
+    }
+
+    /**
+     * same as apply() for a trail map stored as 16 bit unsigned normalized values
+     *
+     * @param trailMap trail map
+     * @param channels number of channels per pixel, 4 or 2
+     * @param pixel index of the pixel
+     * @param species0 number of deposits of species 0
+     * @param species1 number of deposits of species 1
+     */
+    static void apply(short[] trailMap, int channels, int pixel, int species0, int species1) {
+        int amount0 = toShort(species0);
+        int amount1 = toShort(species1);
+        int index = pixel * channels;
+        int blue = index + channels / 2;
+        trailMap[index] = (short) Math.min(ShortDiffuseKernel.ONE, (trailMap[index] & ShortDiffuseKernel.ONE) + amount1);
+        trailMap[blue] = (short) Math.min(SHORT_BLUE_LIMIT, (trailMap[blue] & ShortDiffuseKernel.ONE) + amount0);
+        if(channels == 4) {
+            trailMap[index + 1] = (short) Math.min(ShortDiffuseKernel.ONE, (trailMap[index + 1] & ShortDiffuseKernel.ONE) + amount0 + amount1);
+            trailMap[index + 3] = (short) ShortDiffuseKernel.ONE;
+        }
+    }
+
+    /**
+     * @param count number of deposits
+     * @return deposited amount as 16 bit unsigned normalized value, saturated at 1
+     */
+    private static int toShort(int count) {
+        return (int) Math.min(ShortDiffuseKernel.ONE, (long) count * SHORT_AMOUNT);
+    }
+}
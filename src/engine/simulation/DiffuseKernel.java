@@ -0,0 +1,62 @@
+package engine.simulation;
+
+/**
+ * diffuse and evaporate pass of posProcessing.shader on a float trail map with 4 (rgba) or 2 (red and blue) channels per pixel:
+ * box blur with a radius of blurSize, mix with diffuseSpeed * deltaTime and subtraction of the evaporation per channel
+ */
+public interface DiffuseKernel {
+
+    /**
+     * diffuses and evaporates a rectangular tile of the map
+     *
+     * @param source trail map the values are read from
+     * @param target trail map the result is written to, must not be the source
+     * @param width trail map width in pixels
+     * @param height trail map height in pixels
+     * @param channels number of channels per pixel, 4 or 2
+     * @param fromX first column
+     * @param toX end of the column range (exclusive)
+     * @param fromRow first row
+     * @param toRow end of the row range (exclusive)
+     * @param blurSize blur radius in pixels
+     * @param diffuseWeight diffuseSpeed * deltaTime
+     * @param evaporate evaporation of the channels for this step, four entries, a two channel pattern is repeated
+     */
+    void diffuseTile(float[] source, float[] target, int width, int height, int channels, int fromX, int toX, int fromRow, int toRow, int blurSize, float diffuseWeight, float[] evaporate);
+
+    /**
+     * diffuses and evaporates a range of full rows
+     *
+     * @param source trail map the values are read from
+     * @param target trail map the result is written to, must not be the source
+     * @param width trail map width in pixels
+     * @param height trail map height in pixels
+     * @param channels number of channels per pixel, 4 or 2
+     * @param fromRow first row
+     * @param toRow end of the row range (exclusive)
+     * @param blurSize blur radius in pixels
+     * @param diffuseWeight diffuseSpeed * deltaTime
+     * @param evaporate evaporation of the channels for this step, four entries, a two channel pattern is repeated
+     */
+    default void diffuseRows(float[] source, float[] target, int width, int height, int channels, int fromRow, int toRow, int blurSize, float diffuseWeight, float[] evaporate) {
+        diffuseTile(source, target, width, height, channels, 0, width, fromRow, toRow, blurSize, diffuseWeight, evaporate);
+    }
+
+    /**
+     * @return the vector api kernel if the jdk.incubator.vector module is available
+     * and the cpu has vectors of at least four floats, otherwise the scalar kernel
+     */
+    static DiffuseKernel create() {
+        if(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent() && VectorDiffuseKernel.isSupported()) {
+            return new VectorDiffuseKernel();
+        }
+        return scalar();
+    }
+
+    /**
+     * @return the plain java kernel
+     */
+    static DiffuseKernel scalar() {
+        return new ScalarDiffuseKernel();
+    }
+}
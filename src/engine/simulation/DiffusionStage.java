@@ -0,0 +1,195 @@
+package engine.simulation;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * runs the diffuse kernel over the whole trail map on a fork join pool.
+ *
+ * With a tile size the map is cut into square tiles that, including their halo,
+ * fit into the l2 cache of a core. A task owns one stripe of tiles (one row of tiles)
+ * and processes its tiles from left to right, so every worker streams through
+ * its own part of the map. With a tile size of 0 the map is processed in full rows.
+ * With active tiles only the tiles that can hold mass after the step are diffused
+ */
+public class DiffusionStage {
+
+    /** number of rows processed by one task without tiling */
+    private static final int ROW_GRAIN = 8;
+
+    /** largest blurSize of the 16 bit maps, a bigger box of 65535 values overflows the int sums */
+    public static final int MAX_SHORT_BLUR_SIZE = 90;
+
+    /** pool the diffusion runs on */
+    private final ForkJoinPool pool;
+
+    /** kernel doing the work on the tiles */
+    private final DiffuseKernel kernel;
+
+    /** integer kernel for maps stored as 16 bit unsigned normalized values */
+    private final ShortDiffuseKernel shortKernel = ShortDiffuseKernel.create();
+
+    /**
+     * @param pool pool the diffusion runs on
+     * @param kernel kernel doing the work on the tiles
+     */
+    public DiffusionStage(ForkJoinPool pool, DiffuseKernel kernel) {
+        this.pool = pool;
+        this.kernel = kernel;
+    }
+
+    /**
+     * diffuses and evaporates the whole map
+     *
+     * @param source trail map the values are read from
+     * @param target trail map the result is written to, must not be the source
+     * @param settings simulation parameters, also contain the size of the map and the tile size
+     */
+    public void run(float[] source, float[] target, SimulationSettings settings) {
+        run(source, target, settings, null);
+    }
+
+    /**
+     * diffuses and evaporates the tiles of the map that can hold mass, the other tiles of the target stay zero
+     *
+     * @param source trail map the values are read from
+     * @param target trail map the result is written to, must not be the source
+     * @param settings simulation parameters, also contain the size of the map
+     * @param activeTiles flags of the tiles holding mass, their tile size replaces the one of the settings. null diffuses every tile
+     */
+    public void run(float[] source, float[] target, SimulationSettings settings, ActiveTiles activeTiles) {
+        run(source, target, settings, activeTiles, null);
+    }
+
+    /**
+     * diffuses and evaporates the map tile by tile and runs follow up work on every tile right after it was diffused,
+     * while it is still in the cache. a task works through the tiles of its stripe from left to right
+     *
+     * @param source trail map the values are read from
+     * @param target trail map the result is written to, must not be the source
+     * @param settings simulation parameters, also contain the size of the map
+     * @param activeTiles flags of the tiles holding mass, their tile size replaces the one of the settings. null diffuses every tile
+     * @param afterTile work done on every diffused tile, may be null
+     */
+    void run(float[] source, float[] target, SimulationSettings settings, ActiveTiles activeTiles, TileTask afterTile) {
+        int width = settings.getWidth();
+        int height = settings.getHeight();
+        int blurSize = settings.getBlurSize();
+        float deltaTime = settings.getDeltaTime();
+        float diffuseWeight = settings.getDiffuseSpeed() * deltaTime;
+        int channels = settings.getTrailLayout().getChannels();
+        float[] evaporate = settings.getTrailLayout().evaporation(settings.getEvaporateSpeed(), deltaTime);
+
+        forEachTile(settings, activeTiles, (fromX, toX, fromRow, toRow) -> {
+            kernel.diffuseTile(source, target, width, height, channels, fromX, toX, fromRow, toRow, blurSize, diffuseWeight, evaporate);
+            if(activeTiles != null) {
+                activeTiles.setTargetMass(fromX, fromRow, ActiveTiles.holdsMass(target, width, channels, fromX, toX, fromRow, toRow));
+            }
+            if(afterTile != null) {
+                afterTile.run(fromX, toX, fromRow, toRow);
+            }
+        });
+    }
+
+    /**
+     * diffuses and evaporates the whole map stored as 16 bit unsigned normalized values, the box sums are ints
+     *
+     * @param source trail map the values are read from
+     * @param target trail map the result is written to, must not be the source
+     * @param settings simulation parameters, also contain the size of the map and the tile size
+     */
+    public void run(short[] source, short[] target, SimulationSettings settings) {
+        run(source, target, settings, null);
+    }
+
+    /**
+     * diffuses and evaporates the tiles of the 16 bit map that can hold mass, the other tiles of the target stay zero
+     *
+     * @param source trail map the values are read from
+     * @param target trail map the result is written to, must not be the source
+     * @param settings simulation parameters, also contain the size of the map
+     * @param activeTiles flags of the tiles holding mass, their tile size replaces the one of the settings. null diffuses every tile
+     */
+    public void run(short[] source, short[] target, SimulationSettings settings, ActiveTiles activeTiles) {
+        run(source, target, settings, activeTiles, null);
+    }
+
+    /**
+     * diffuses and evaporates the map tile by tile and runs follow up work on every tile right after it was diffused,
+     * while it is still in the cache. a task works through the tiles of its stripe from left to right
+     *
+     * @param source trail map the values are read from
+     * @param target trail map the result is written to, must not be the source
+     * @param settings simulation parameters, also contain the size of the map
+     * @param activeTiles flags of the tiles holding mass, their tile size replaces the one of the settings. null diffuses every tile
+     * @param afterTile work done on every diffused tile, may be null
+     */
+    void run(short[] source, short[] target, SimulationSettings settings, ActiveTiles activeTiles, TileTask afterTile) {
+        int width = settings.getWidth();
+        int height = settings.getHeight();
+        int blurSize = settings.getBlurSize();
+        if(blurSize > MAX_SHORT_BLUR_SIZE) {
+            throw new IllegalStateException("The 16 bit trail map supports a blurSize of up to " + MAX_SHORT_BLUR_SIZE);
+        }
+        float deltaTime = settings.getDeltaTime();
+        float diffuseWeight = settings.getDiffuseSpeed() * deltaTime;
+        int channels = settings.getTrailLayout().getChannels();
+        float[] evaporate = settings.getTrailLayout().evaporation(settings.getEvaporateSpeed(), deltaTime * ShortDiffuseKernel.ONE);
+
+        forEachTile(settings, activeTiles, (fromX, toX, fromRow, toRow) -> {
+            shortKernel.diffuseTile(source, target, width, height, channels, fromX, toX, fromRow, toRow, blurSize, diffuseWeight, evaporate);
+            if(activeTiles != null) {
+                activeTiles.setTargetMass(fromX, fromRow, ActiveTiles.holdsMass(target, width, channels, fromX, toX, fromRow, toRow));
+            }
+            if(afterTile != null) {
+                afterTile.run(fromX, toX, fromRow, toRow);
+            }
+        });
+    }
+
+    /**
+     * work done on one tile
+     */
+    interface TileTask {
+
+        /**
+         * @param fromX first column
+         * @param toX end of the column range (exclusive)
+         * @param fromRow first row
+         * @param toRow end of the row range (exclusive)
+         */
+        void run(int fromX, int toX, int fromRow, int toRow);
+    }
+
+    /**
+     * runs a task for every tile of the map, or for ranges of full rows if the tile size is 0
+     *
+     * @param settings simulation parameters, also contain the size of the map and the tile size
+     * @param activeTiles if not null, only the tiles of its size that need a diffusion are run
+     * @param task work done on one tile
+     */
+    private void forEachTile(SimulationSettings settings, ActiveTiles activeTiles, TileTask task) {
+        int width = settings.getWidth();
+        int height = settings.getHeight();
+        int blurSize = settings.getBlurSize();
+        int tileSize = activeTiles != null ? activeTiles.getTileSize() : settings.getTileSize();
+
+        if(tileSize <= 0) {
+            // a task computes the horizontal sums of blurSize extra rows on both sides, so wide blurs get bigger tasks
+            ParallelFor.run(pool, 0, height, Math.max(ROW_GRAIN, blurSize * 4), (from, to) -> task.run(0, width, from, to));
+            return;
+        }
+
+        int stripes = (height + tileSize - 1) / tileSize;
+        ParallelFor.run(pool, 0, stripes, 1, (fromStripe, toStripe) -> {
+            for(int stripe = fromStripe; stripe < toStripe; stripe++) {
+                int fromRow = stripe * tileSize;
+                int toRow = Math.min(height, fromRow + tileSize);
+                for(int fromX = 0; fromX < width; fromX += tileSize) {
+                    if(activeTiles == null || activeTiles.needsDiffusion(fromX, fromRow, blurSize)) {
+                        task.run(fromX, Math.min(width, fromX + tileSize), fromRow, toRow);
+                    }
+                }
+            }
+        });
+    }
+}
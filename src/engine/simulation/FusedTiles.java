@@ -0,0 +1,188 @@
+package engine.simulation;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * agents grouped by the diffusion tile they are in, for the fused step that diffuses a tile and then
+ * moves the agents of the tile while the tile is still in the cache. The agents of a tile are kept
+ * in the order of their ids. Deposits that land outside of the tile of their agent can not be added
+ * while the neighbouring tile may still be diffused, they are collected per worker and added after all tiles
+ */
+class FusedTiles {
+
+    /** number of agents whose tile is calculated by one task */
+    private static final int GRAIN = 65536;
+
+    /** edge length of the tiles in pixels */
+    private final int tileSize;
+
+    /** number of tiles in a row */
+    private final int tilesX;
+
+    /** tile of every agent */
+    private final int[] tileOf;
+
+    /** agent ids grouped by tile */
+    private final int[] order;
+
+    /** index of the first agent of every tile in order, one more entry for the end of the last tile */
+    private final int[] offsets;
+
+    /** deferred deposits of every worker */
+    private final WorkerSlots<DeferredDeposits> deferred;
+
+    /**
+     * deposits of one worker, three ints (x, y, species) per deposit
+     */
+    private static final class DeferredDeposits {
+
+        private int[] values = new int[3 * 256];
+
+        private int size;
+    }
+
+    /**
+     * receives a deferred deposit
+     */
+    interface Deposit {
+
+        /**
+         * @param x column of the deposit
+         * @param y row of the deposit
+         * @param species species of the depositing agent
+         */
+        void apply(int x, int y, int species);
+    }
+
+    /**
+     * @param pool pool the fused step runs on, its workers collect their deferred deposits separately
+     * @param count number of agents
+     * @param width map width in pixels
+     * @param height map height in pixels
+     * @param tileSize edge length of the tiles in pixels, the tile size of the diffusion
+     */
+    FusedTiles(ForkJoinPool pool, int count, int width, int height, int tileSize) {
+        this.deferred = new WorkerSlots<>(pool, DeferredDeposits::new);
+        this.tileSize = tileSize;
+        this.tilesX = (width + tileSize - 1) / tileSize;
+        int tilesY = (height + tileSize - 1) / tileSize;
+        this.tileOf = new int[count];
+        this.order = new int[count];
+        this.offsets = new int[tilesX * tilesY + 1];
+    }
+
+    /**
+     * groups the active agents by their current tile with a counting sort
+     *
+     * @param pool pool the tiles of the agents are calculated on
+     * @param agents agents of the simulation
+     * @param activeCount number of leading agents that are simulated, the parked ones are left out
+     */
+    void assign(ForkJoinPool pool, AgentStore agents, int activeCount) {
+        FloatBuffer agentX = agents.getX();
+        FloatBuffer agentY = agents.getY();
+        ParallelFor.run(pool, 0, activeCount, GRAIN, (from, to) -> {
+            for(int id = from; id < to; id++) {
+                tileOf[id] = tileIndex((int) agentX.get(id), (int) agentY.get(id));
+            }
+        });
+
+        Arrays.fill(offsets, 0);
+        for(int id = 0; id < activeCount; id++) {
+            offsets[tileOf[id] + 1]++;
+        }
+        for(int tile = 1; tile < offsets.length; tile++) {
+            offsets[tile] += offsets[tile - 1];
+        }
+        // offsets of the tiles are moved to their ends by the scatter and shifted back afterwards
+        for(int id = 0; id < activeCount; id++) {
+            order[offsets[tileOf[id]]++] = id;
+        }
+        System.arraycopy(offsets, 0, offsets, 1, offsets.length - 1);
+        offsets[0] = 0;
+    }
+
+    /**
+     * @param x column
+     * @param y row
+     * @return index of the tile holding the pixel
+     */
+    int tileIndex(int x, int y) {
+        return (y / tileSize) * tilesX + x / tileSize;
+    }
+
+    /**
+     * @return agent ids grouped by tile
+     */
+    int[] getOrder() {
+        return order;
+    }
+
+    /**
+     * @param tile index of the tile
+     * @return index of the first agent of the tile in getOrder()
+     */
+    int firstAgent(int tile) {
+        return offsets[tile];
+    }
+
+    /**
+     * @param tile index of the tile
+     * @return end of the agents of the tile in getOrder() (exclusive)
+     */
+    int endAgent(int tile) {
+        return offsets[tile + 1];
+    }
+
+    /**
+     * @return edge length of the tiles in pixels
+     */
+    int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * @return number of agents the tiles were created for
+     */
+    int getCount() {
+        return tileOf.length;
+    }
+
+    /**
+     * collects a deposit outside of the tile of the agent, may be called by several threads at once
+     *
+     * @param x column of the deposit
+     * @param y row of the deposit
+     * @param species species of the depositing agent
+     */
+    void defer(int x, int y, int species) {
+        DeferredDeposits deposits = deferred.get();
+        if(deposits.size + 3 > deposits.values.length) {
+            deposits.values = Arrays.copyOf(deposits.values, deposits.values.length * 2);
+        }
+        deposits.values[deposits.size++] = x;
+        deposits.values[deposits.size++] = y;
+        deposits.values[deposits.size++] = species;
+    }
+
+    /**
+     * hands all deferred deposits to the consumer and clears them, called after all tiles. the deposits
+     * only add a constant to a channel up to a cap, so the order does not change the result
+     *
+     * @param deposit receives the deposits
+     * @return number of deferred deposits
+     */
+    int applyDeferred(Deposit deposit) {
+        int count = 0;
+        for(DeferredDeposits deposits : deferred.all()) {
+            for(int i = 0; i < deposits.size; i += 3) {
+                deposit.apply(deposits.values[i], deposits.values[i + 1], deposits.values[i + 2]);
+            }
+            count += deposits.size / 3;
+            deposits.size = 0;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,142 @@
+package engine.simulation;
+
+import java.nio.FloatBuffer;
+
+/**
+ * lookup tables for agents whose directions are quantized to a fixed number of headings.
+ * The sensor offsets and the movement vectors are read from the tables instead of
+ * calling cos and sin four times per agent and step. The tables of the sensor offsets
+ * already contain sensorOffsetDist and are rebuilt when it changes
+ */
+public class HeadingTable {
+
+    /** number of headings, a power of two */
+    private final int resolution;
+
+    /** headings per radian */
+    private final float scale;
+
+    /** x of the unit direction of every heading */
+    private final float[] directionX;
+
+    /** y of the unit direction of every heading */
+    private final float[] directionY;
+
+    /** x of the sensor offset of every heading */
+    private final float[] sensorX;
+
+    /** y of the sensor offset of every heading */
+    private final float[] sensorY;
+
+    /** sensor distance the sensor offsets were built for */
+    private float sensorOffsetDist = Float.NaN;
+
+    /**
+     * @param resolution number of headings, has to be a power of two
+     */
+    public HeadingTable(int resolution) {
+        if(resolution <= 0 || Integer.bitCount(resolution) != 1) {
+            throw new IllegalArgumentException("Heading resolution has to be a power of two: " + resolution);
+        }
+        this.resolution = resolution;
+        this.scale = (float) (resolution / (Math.PI * 2));
+        directionX = new float[resolution];
+        directionY = new float[resolution];
+        sensorX = new float[resolution];
+        sensorY = new float[resolution];
+        for(int i = 0; i < resolution; i++) {
+            double angle = i * Math.PI * 2 / resolution;
+            directionX[i] = (float) Math.cos(angle);
+            directionY[i] = (float) Math.sin(angle);
+        }
+    }
+
+    /**
+     * rebuilds the sensor offsets if the sensor distance changed
+     *
+     * @param sensorOffsetDist distance of the sensors from the agent
+     */
+    public void update(float sensorOffsetDist) {
+        if(sensorOffsetDist == this.sensorOffsetDist) {
+            return;
+        }
+        for(int i = 0; i < resolution; i++) {
+            sensorX[i] = directionX[i] * sensorOffsetDist;
+            sensorY[i] = directionY[i] * sensorOffsetDist;
+        }
+        this.sensorOffsetDist = sensorOffsetDist;
+    }
+
+    /**
+     * @param angle angle in radians, any range
+     * @return index of the nearest heading
+     */
+    public int index(float angle) {
+        return Math.round(angle * scale) & (resolution - 1);
+    }
+
+    /**
+     * @param angle angle in radians
+     * @return number of headings closest to the angle, used for the sensor spacing
+     */
+    public int steps(float angle) {
+        return Math.round(angle * scale);
+    }
+
+    /**
+     * @param index heading index, wraps around
+     * @return x of the unit direction
+     */
+    public float directionX(int index) {
+        return directionX[index & (resolution - 1)];
+    }
+
+    /**
+     * @param index heading index, wraps around
+     * @return y of the unit direction
+     */
+    public float directionY(int index) {
+        return directionY[index & (resolution - 1)];
+    }
+
+    /**
+     * @param index heading index, wraps around
+     * @return x of the sensor offset
+     */
+    public float sensorX(int index) {
+        return sensorX[index & (resolution - 1)];
+    }
+
+    /**
+     * @param index heading index, wraps around
+     * @return y of the sensor offset
+     */
+    public float sensorY(int index) {
+        return sensorY[index & (resolution - 1)];
+    }
+
+    /**
+     * writes the unit directions in the std430 layout of a vec2 array, used for the upload to the gpu
+     *
+     * @param target buffer the directions are written to, starting at its position
+     */
+    public void writeDirections(FloatBuffer target) {
+        for(int i = 0; i < resolution; i++) {
+            target.put(directionX[i]).put(directionY[i]);
+        }
+    }
+
+    /**
+     * @return number of headings
+     */
+    public int getResolution() {
+        return resolution;
+    }
+
+    /**
+     * @return headings per radian, the gpu rounds the same products
+     */
+    public float getScale() {
+        return scale;
+    }
+}
@@ -0,0 +1,97 @@
+package engine.simulation;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * summed area table of the attraction field (blue channel minus red channel of the trail map),
+ * so the sum over any sensor window is four lookups instead of a loop over the window.
+ *
+ * The values are stored as 16.16 fixed point ints and the sums use wrapping int arithmetic.
+ * The table entries themselves overflow on big maps, but the four tap difference of a window
+ * is exact as long as the window sum fits into an int, which holds for windows of up to
+ * 181x181 pixels (sensorSize 90). integral.shader builds the same table on the gpu
+ */
+public class IntegralImage {
+
+    /** fixed point scale of the stored values */
+    static final int SCALE = 1 << 16;
+
+    /** largest sensorSize the window sums are exact for, also the limit of integral.shader */
+    public static final int MAX_SENSOR_SIZE = 90;
+
+    /** number of rows or columns processed by one task */
+    private static final int GRAIN = 16;
+
+    /** map width in pixels */
+    private final int width;
+
+    /** map height in pixels */
+    private final int height;
+
+    /** table with an extra zero row and column in front, (width + 1) * (height + 1) entries */
+    private final int[] sums;
+
+    /**
+     * @param width map width in pixels
+     * @param height map height in pixels
+     */
+    IntegralImage(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.sums = new int[(width + 1) * (height + 1)];
+    }
+
+    /**
+     * builds the table from the attraction field: prefix sums along the rows, then down the columns
+     *
+     * @param pool pool the build runs on
+     * @param attraction attraction field of species 0, row major
+     */
+    void build(ForkJoinPool pool, float[] attraction) {
+        int stride = width + 1;
+        ParallelFor.run(pool, 0, height, GRAIN, (fromRow, toRow) -> {
+            for(int y = fromRow; y < toRow; y++) {
+                int row = (y + 1) * stride;
+                int sum = 0;
+                for(int x = 0; x < width; x++) {
+                    sum += Math.round(attraction[y * width + x] * SCALE);
+                    sums[row + x + 1] = sum;
+                }
+            }
+        });
+        // columns are processed in vertical strips, so every task still reads whole cache lines
+        ParallelFor.run(pool, 1, stride, GRAIN * 16, (fromColumn, toColumn) -> {
+            for(int y = 2; y <= height; y++) {
+                int row = y * stride;
+                for(int x = fromColumn; x < toColumn; x++) {
+                    sums[row + x] += sums[row - stride + x];
+                }
+            }
+        });
+    }
+
+    /**
+     * sum of the sensed values in a window, the window is clipped to the map
+     *
+     * @param fromX first column of the window
+     * @param fromY first row of the window
+     * @param toX last column of the window (inclusive)
+     * @param toY last row of the window (inclusive)
+     * @return window sum as float
+     */
+    float windowSum(int fromX, int fromY, int toX, int toY) {
+        fromX = Math.max(0, fromX);
+        fromY = Math.max(0, fromY);
+        toX = Math.min(width - 1, toX);
+        toY = Math.min(height - 1, toY);
+        if(fromX > toX || fromY > toY) {
+            return 0;
+        }
+        int stride = width + 1;
+        int sum = sums[(toY + 1) * stride + toX + 1]
+                - sums[fromY * stride + toX + 1]
+                - sums[(toY + 1) * stride + fromX]
+                + sums[fromY * stride + fromX];
+        return sum / (float) SCALE;
+    }
+}
@@ -0,0 +1,272 @@
+package engine.simulation;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * evaporation that is only applied to a tile when the tile is needed. Every tile records the step up to which
+ * its evaporation has been applied (its epoch). Tiles the agents sense or deposit on in a step are brought up to date
+ * before the step, all tiles when the map is exported. Without a diffusion (diffuseSpeed * deltaTime of 0) the
+ * step of a tile is max(0, value - evaporate) per channel, so replaying the missed subtractions one by one
+ * gives exactly the values of the eager evaporation. The replay of a value stops once it reached zero
+ */
+class LazyEvaporation {
+
+    /** edge length of the tiles in pixels */
+    static final int TILE_SIZE = 64;
+
+    /** number of tiles processed by one task */
+    private static final int TILE_GRAIN = 4;
+
+    /** map width in pixels */
+    private final int width;
+
+    /** map height in pixels */
+    private final int height;
+
+    /** number of channels per pixel */
+    private final int channels;
+
+    /** number of tiles in a row */
+    private final int tilesX;
+
+    /** number of tile rows */
+    private final int tilesY;
+
+    /** step of every tile up to which (exclusive) the evaporation has been applied */
+    private final int[] epochs;
+
+    /** tiles the agents sense or deposit on in the current step */
+    private final byte[] touched;
+
+    /** evaporation of one step the pending steps of all tiles were made with, null before the first lazy step */
+    private float[] evaporate;
+
+    /**
+     * work done on a tile after it was brought up to date
+     */
+    interface TileTask {
+
+        /**
+         * @param fromX first column
+         * @param toX end of the column range (exclusive)
+         * @param fromRow first row
+         * @param toRow end of the row range (exclusive)
+         */
+        void run(int fromX, int toX, int fromRow, int toRow);
+    }
+
+    /**
+     * @param width map width in pixels
+     * @param height map height in pixels
+     * @param channels number of channels per pixel
+     * @param step step the map is up to date with
+     */
+    LazyEvaporation(int width, int height, int channels, int step) {
+        this.width = width;
+        this.height = height;
+        this.channels = channels;
+        this.tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        this.tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        this.epochs = new int[tilesX * tilesY];
+        this.touched = new byte[tilesX * tilesY];
+        reset(step);
+    }
+
+    /**
+     * marks the map as up to date, used after the map was evaporated eagerly
+     *
+     * @param step step the map is up to date with
+     */
+    void reset(int step) {
+        Arrays.fill(epochs, step);
+    }
+
+    /**
+     * @param evaporate evaporation of the coming step, four entries
+     * @return true if the pending steps were made with a different evaporation, so all tiles have to be brought up to date first
+     */
+    boolean changesEvaporation(float[] evaporate) {
+        return this.evaporate != null && !Arrays.equals(this.evaporate, evaporate);
+    }
+
+    /**
+     * @param evaporate evaporation of one step the coming steps are made with, four entries
+     */
+    void setEvaporation(float[] evaporate) {
+        this.evaporate = evaporate.clone();
+    }
+
+    /**
+     * marks the tiles within reach of an agent, may be called by several threads at once
+     *
+     * @param x column of the agent
+     * @param y row of the agent
+     * @param reach distance in pixels the agent senses and moves
+     * @param wrap true if the reach continues over the edges on the other side of the map
+     */
+    void touch(int x, int y, int reach, boolean wrap) {
+        touchRange(x - reach, x + reach, y - reach, y + reach);
+        if(wrap) {
+            // the parts of the reach outside of the map, moved to the other side
+            boolean left = x - reach < 0, right = x + reach >= width;
+            boolean top = y - reach < 0, bottom = y + reach >= height;
+            int shiftX = left ? width : (right ? -width : 0);
+            int shiftY = top ? height : (bottom ? -height : 0);
+            if(shiftX != 0) {
+                touchRange(x - reach + shiftX, x + reach + shiftX, y - reach, y + reach);
+            }
+            if(shiftY != 0) {
+                touchRange(x - reach, x + reach, y - reach + shiftY, y + reach + shiftY);
+            }
+            if(shiftX != 0 && shiftY != 0) {
+                touchRange(x - reach + shiftX, x + reach + shiftX, y - reach + shiftY, y + reach + shiftY);
+            }
+        }
+    }
+
+    /**
+     * marks the tiles of a pixel range, the range is clipped to the map
+     */
+    private void touchRange(int fromX, int toX, int fromY, int toY) {
+        fromX = Math.max(0, fromX);
+        toX = Math.min(width - 1, toX);
+        fromY = Math.max(0, fromY);
+        toY = Math.min(height - 1, toY);
+        if(fromX > toX || fromY > toY) {
+            return;
+        }
+        for(int tileY = fromY / TILE_SIZE; tileY <= toY / TILE_SIZE; tileY++) {
+            for(int tileX = fromX / TILE_SIZE; tileX <= toX / TILE_SIZE; tileX++) {
+                touched[tileY * tilesX + tileX] = 1;
+            }
+        }
+    }
+
+    /**
+     * clears the touched tiles for the next step
+     */
+    void clearTouched() {
+        Arrays.fill(touched, (byte) 0);
+    }
+
+    /**
+     * @return number of tiles touched in the current step
+     */
+    int countTouched() {
+        int count = 0;
+        for(byte tile : touched) {
+            count += tile;
+        }
+        return count;
+    }
+
+    /**
+     * @return total number of tiles
+     */
+    int getTileCount() {
+        return tilesX * tilesY;
+    }
+
+    /**
+     * applies the missing evaporation steps to the tiles of a float map
+     *
+     * @param pool pool the work runs on
+     * @param map trail map
+     * @param step step the tiles are brought up to
+     * @param touchedOnly true for the touched tiles, false for all tiles
+     * @param then work done on every touched tile after it was brought up to date, may be null
+     */
+    void materialize(ForkJoinPool pool, float[] map, int step, boolean touchedOnly, TileTask then) {
+        forEachTile(pool, step, touchedOnly, then, (fromX, toX, fromRow, toRow, steps) -> {
+            for(int y = fromRow; y < toRow; y++) {
+                int end = (y * width + toX) * channels;
+                for(int i = (y * width + fromX) * channels; i < end; i++) {
+                    map[i] = evaporate(map[i], evaporate[i & 3], steps);
+                }
+            }
+        });
+    }
+
+    /**
+     * applies the missing evaporation steps to the tiles of a map of 16 bit unsigned normalized values
+     *
+     * @param pool pool the work runs on
+     * @param map trail map
+     * @param step step the tiles are brought up to
+     * @param touchedOnly true for the touched tiles, false for all tiles
+     * @param then work done on every touched tile after it was brought up to date, may be null
+     */
+    void materialize(ForkJoinPool pool, short[] map, int step, boolean touchedOnly, TileTask then) {
+        forEachTile(pool, step, touchedOnly, then, (fromX, toX, fromRow, toRow, steps) -> {
+            for(int y = fromRow; y < toRow; y++) {
+                int end = (y * width + toX) * channels;
+                for(int i = (y * width + fromX) * channels; i < end; i++) {
+                    map[i] = evaporate(map[i], evaporate[i & 3], steps);
+                }
+            }
+        });
+    }
+
+    /**
+     * evaporation of the missed steps of one tile
+     */
+    private interface Replay {
+
+        void run(int fromX, int toX, int fromRow, int toRow, int steps);
+    }
+
+    /**
+     * brings the selected tiles up to date, then runs the follow up work on the touched ones
+     */
+    private void forEachTile(ForkJoinPool pool, int step, boolean touchedOnly, TileTask then, Replay replay) {
+        ParallelFor.run(pool, 0, tilesX * tilesY, TILE_GRAIN, (fromTile, toTile) -> {
+            for(int tile = fromTile; tile < toTile; tile++) {
+                boolean tileTouched = touched[tile] != 0;
+                if(touchedOnly && !tileTouched) {
+                    continue;
+                }
+                int fromX = (tile % tilesX) * TILE_SIZE;
+                int fromRow = (tile / tilesX) * TILE_SIZE;
+                int toX = Math.min(width, fromX + TILE_SIZE);
+                int toRow = Math.min(height, fromRow + TILE_SIZE);
+                if(epochs[tile] < step) {
+                    replay.run(fromX, toX, fromRow, toRow, step - epochs[tile]);
+                    epochs[tile] = step;
+                }
+                if(then != null && tileTouched) {
+                    then.run(fromX, toX, fromRow, toRow);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return value after the steps of ScalarDiffuseKernel with a diffuse weight of 0
+     */
+    private static float evaporate(float value, float evaporate, int steps) {
+        if(evaporate == 0) {
+            return value;
+        }
+        for(int n = 0; n < steps && (value > 0 || evaporate < 0); n++) {
+            value = Math.max(0, value - evaporate);
+        }
+        return value;
+    }
+
+    /**
+     * @return value after the steps of ShortDiffuseKernel with a diffuse weight of 0
+     */
+    private static short evaporate(short stored, float evaporate, int steps) {
+        if(evaporate == 0) {
+            return stored;
+        }
+        int value = stored & ShortDiffuseKernel.ONE;
+        for(int n = 0; n < steps && (value > 0 || evaporate < 0); n++) {
+            float result = value - evaporate;
+            result = result < 0 ? 0 : (result > ShortDiffuseKernel.ONE ? ShortDiffuseKernel.ONE : result);
+            value = Float.floatToRawIntBits(result + ShortDiffuseKernel.ROUNDING_OFFSET) & ShortDiffuseKernel.ONE;
+        }
+        return (short) value;
+    }
+}
@@ -0,0 +1,237 @@
+package engine.simulation;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * reorders the agents by the z-order (morton) code of the map cell they are in,
+ * so agents that are close on the map are also close in the agent columns.
+ * The codes are sorted with a parallel least significant digit radix sort:
+ * every block of agents counts its digits, one prefix sum over all blocks gives the
+ * target offsets and every block scatters its agents in order, which keeps the sort stable.
+ * sort.shader does the same on the gpu.
+ *
+ * The scratch space takes 20 bytes per agent, like the agent columns it lives off-heap in buffers
+ * allocated with MemoryUtil, so it is neither limited by nor counted against the java heap. free() releases it
+ */
+public class MortonSort {
+
+    /** cells are 4x4 pixels, one cache line of an rgba32f trail map row */
+    public static final int CELL_SHIFT = 2;
+
+    /** bits sorted per pass */
+    private static final int RADIX_BITS = 8;
+
+    /** number of buckets per pass */
+    private static final int RADIX = 1 << RADIX_BITS;
+
+    /** number of agents counted and scattered by one task */
+    private static final int BLOCK = 65536;
+
+    /** number of agents processed by one task of the key calculation and the gather */
+    private static final int GRAIN = 65536;
+
+    /** number of agents the arrays are sized for */
+    private final int count;
+
+    /** number of leading agents reordered by the current sort */
+    private int sortCount;
+
+    /** number of significant bits of the morton codes */
+    private final int keyBits;
+
+    /** morton codes in the current order */
+    private IntBuffer keys;
+
+    /** agent indices in the current order */
+    private IntBuffer order;
+
+    /** target of the scatter, swaps with keys every pass */
+    private IntBuffer sortedKeys;
+
+    /** target of the scatter, swaps with order every pass */
+    private IntBuffer sortedOrder;
+
+    /** digit counts, later target offsets, of every block, RADIX entries per block */
+    private final int[] histograms;
+
+    /** reordered column before it is copied back */
+    private final FloatBuffer column;
+
+    /**
+     * @param count number of agents
+     * @param width map width in pixels
+     * @param height map height in pixels
+     */
+    public MortonSort(int count, int width, int height) {
+        this.count = count;
+        this.keyBits = keyBits(width, height);
+        keys = MemoryUtil.memAllocInt(count);
+        order = MemoryUtil.memAllocInt(count);
+        sortedKeys = MemoryUtil.memAllocInt(count);
+        sortedOrder = MemoryUtil.memAllocInt(count);
+        histograms = new int[blocks(count) * RADIX];
+        column = MemoryUtil.memAllocFloat(count);
+    }
+
+    /**
+     * sorts the agents by their cell
+     *
+     * @param pool pool the sort runs on
+     * @param agents agents with count entries, reordered in place
+     */
+    public void sort(ForkJoinPool pool, AgentStore agents) {
+        sort(pool, agents, count);
+    }
+
+    /**
+     * sorts the leading agents by their cell, the agents behind them keep their slots
+     *
+     * @param pool pool the sort runs on
+     * @param agents agents with count entries, the leading ones are reordered in place
+     * @param activeCount number of leading agents to sort, at most count
+     */
+    public void sort(ForkJoinPool pool, AgentStore agents, int activeCount) {
+        sortCount = activeCount;
+        FloatBuffer agentX = agents.getX();
+        FloatBuffer agentY = agents.getY();
+        ParallelFor.run(pool, 0, sortCount, GRAIN, (from, to) -> {
+            for(int i = from; i < to; i++) {
+                keys.put(i, mortonCode((int) agentX.get(i) >> CELL_SHIFT, (int) agentY.get(i) >> CELL_SHIFT));
+                order.put(i, i);
+            }
+        });
+
+        for(int shift = 0; shift < keyBits; shift += RADIX_BITS) {
+            radixPass(pool, shift);
+        }
+
+        gather(pool, agents.getX());
+        gather(pool, agents.getY());
+        gather(pool, agents.getAngle());
+        gather(pool, agents.getSpecies());
+    }
+
+    /**
+     * sorts keys and order by one digit into sortedKeys and sortedOrder, then swaps them
+     *
+     * @param shift position of the digit
+     */
+    private void radixPass(ForkJoinPool pool, int shift) {
+        int blocks = blocks(sortCount);
+        ParallelFor.run(pool, 0, blocks, 1, (fromBlock, toBlock) -> {
+            for(int block = fromBlock; block < toBlock; block++) {
+                int offset = block * RADIX;
+                for(int digit = 0; digit < RADIX; digit++) {
+                    histograms[offset + digit] = 0;
+                }
+                int end = Math.min(sortCount, (block + 1) * BLOCK);
+                for(int i = block * BLOCK; i < end; i++) {
+                    histograms[offset + ((keys.get(i) >>> shift) & (RADIX - 1))]++;
+                }
+            }
+        });
+
+        int sum = 0;
+        for(int digit = 0; digit < RADIX; digit++) {
+            for(int block = 0; block < blocks; block++) {
+                int digitCount = histograms[block * RADIX + digit];
+                histograms[block * RADIX + digit] = sum;
+                sum += digitCount;
+            }
+        }
+
+        IntBuffer fromKeys = keys;
+        IntBuffer fromOrder = order;
+        IntBuffer toKeys = sortedKeys;
+        IntBuffer toOrder = sortedOrder;
+        ParallelFor.run(pool, 0, blocks, 1, (fromBlock, toBlock) -> {
+            for(int block = fromBlock; block < toBlock; block++) {
+                int offset = block * RADIX;
+                int end = Math.min(sortCount, (block + 1) * BLOCK);
+                for(int i = block * BLOCK; i < end; i++) {
+                    int key = fromKeys.get(i);
+                    int target = histograms[offset + ((key >>> shift) & (RADIX - 1))]++;
+                    toKeys.put(target, key);
+                    toOrder.put(target, fromOrder.get(i));
+                }
+            }
+        });
+
+        IntBuffer swap = keys;
+        keys = sortedKeys;
+        sortedKeys = swap;
+        swap = order;
+        order = sortedOrder;
+        sortedOrder = swap;
+    }
+
+    /**
+     * reorders one agent column by the sorted order
+     *
+     * @param values column of the agent store
+     */
+    private void gather(ForkJoinPool pool, FloatBuffer values) {
+        IntBuffer sorted = order;
+        ParallelFor.run(pool, 0, sortCount, GRAIN, (from, to) -> {
+            for(int i = from; i < to; i++) {
+                column.put(i, values.get(sorted.get(i)));
+            }
+        });
+        ParallelFor.run(pool, 0, sortCount, GRAIN, (from, to) -> values.put(from, column, from, to - from));
+    }
+
+    /**
+     * releases the off-heap scratch space, the sort can not be used afterwards
+     */
+    public void free() {
+        MemoryUtil.memFree(keys);
+        MemoryUtil.memFree(order);
+        MemoryUtil.memFree(sortedKeys);
+        MemoryUtil.memFree(sortedOrder);
+        MemoryUtil.memFree(column);
+    }
+
+    /**
+     * @param agentCount number of sorted agents
+     * @return number of blocks the agents are split into
+     */
+    private static int blocks(int agentCount) {
+        return Math.max(1, (agentCount + BLOCK - 1) / BLOCK);
+    }
+
+    /**
+     * @param width map width in pixels
+     * @param height map height in pixels
+     * @return number of significant bits of the morton codes of the map
+     */
+    public static int keyBits(int width, int height) {
+        int cells = (Math.max(width, height) - 1) >> CELL_SHIFT;
+        return 2 * (32 - Integer.numberOfLeadingZeros(cells));
+    }
+
+    /**
+     * @param cellX x of the cell, up to 16 bits
+     * @param cellY y of the cell, up to 16 bits
+     * @return bits of x and y interleaved, x in the even bits
+     */
+    static int mortonCode(int cellX, int cellY) {
+        return spreadBits(cellX) | (spreadBits(cellY) << 1);
+    }
+
+    /**
+     * @param value 16 bit value
+     * @return value with a zero bit inserted after every bit
+     */
+    private static int spreadBits(int value) {
+        value &= 0xFFFF;
+        value = (value | (value << 8)) & 0x00FF00FF;
+        value = (value | (value << 4)) & 0x0F0F0F0F;
+        value = (value | (value << 2)) & 0x33333333;
+        value = (value | (value << 1)) & 0x55555555;
+        return value;
+    }
+}
@@ -0,0 +1,70 @@
+package engine.simulation;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * fork join task that splits an index range in halves until it is
+ * smaller than the grain size and runs the body on the pieces
+ */
+class ParallelFor extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * work performed on one piece of the range
+     */
+    interface Body {
+
+        /**
+         * @param from first index (inclusive)
+         * @param to last index (exclusive)
+         */
+        void run(int from, int to);
+    }
+
+    /** first index of this piece */
+    private final int from;
+
+    /** end of this piece (exclusive) */
+    private final int to;
+
+    /** maximum size of a piece that is not split any further */
+    private final int grain;
+
+    /** work done on the pieces */
+    private final Body body;
+
+    private ParallelFor(int from, int to, int grain, Body body) {
+        this.from = from;
+        this.to = to;
+        this.grain = grain;
+        this.body = body;
+    }
+
+    /**
+     * runs the body over the range [from, to) on the pool and waits for it to finish
+     *
+     * @param pool pool the pieces are executed on
+     * @param from first index (inclusive)
+     * @param to last index (exclusive)
+     * @param grain maximum size of a piece
+     * @param body work done on the pieces
+     */
+    static void run(ForkJoinPool pool, int from, int to, int grain, Body body) {
+        if(to <= from) {
+            return;
+        }
+        pool.invoke(new ParallelFor(from, to, Math.max(1, grain), body));
+    }
+
+    @Override
+    protected void compute() {
+        if(to - from <= grain) {
+            body.run(from, to);
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        invokeAll(new ParallelFor(from, middle, grain, body), new ParallelFor(middle, to, grain, body));
+    }
+}
@@ -0,0 +1,38 @@
+package engine.simulation;
+
+/**
+ * plain java version of the separable diffuse kernel, one float at a time
+ */
+class ScalarDiffuseKernel extends SeparableDiffuseKernel {
+
+    @Override
+    protected void addRow(float[] sums, int rowOffset, int accumulator, int length) {
+        for(int i = 0; i < length; i++) {
+            sums[accumulator + i] += sums[rowOffset + i];
+        }
+    }
+
+    @Override
+    protected void subtractRow(float[] sums, int rowOffset, int accumulator, int length) {
+        for(int i = 0; i < length; i++) {
+            sums[accumulator + i] -= sums[rowOffset + i];
+        }
+    }
+
+    @Override
+    protected void finishRow(float[] source, float[] target, int rowOffset, float[] sums, int accumulator, int length, float inverseArea, float diffuseWeight, float[] evaporate) {
+        finishRange(source, target, rowOffset, sums, accumulator, 0, length, inverseArea, diffuseWeight, evaporate);
+    }
+
+    /**
+     * finishes the floats [from, to) of a row, used by the vector kernel for the tail of a row
+     */
+    static void finishRange(float[] source, float[] target, int rowOffset, float[] sums, int accumulator, int from, int to, float inverseArea, float diffuseWeight, float[] evaporate) {
+        for(int i = from; i < to; i++) {
+            float originalValue = source[rowOffset + i];
+            float blurResult = sums[accumulator + i] * inverseArea;
+            float diffuseValue = originalValue + (blurResult - originalValue) * diffuseWeight;
+            target[rowOffset + i] = Math.max(0, diffuseValue - evaporate[i & 3]);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package engine.simulation;
+
+import java.util.Arrays;
+
+/**
+ * base of the diffuse kernels: the box blur is split in a horizontal and a vertical pass
+ * that both use sliding window sums, so the cost per pixel does not depend on the blur size.
+ * The horizontal pass writes the window sums of every needed row into a scratch buffer,
+ * the vertical pass keeps one accumulator row that gets the row entering the window added
+ * and the row leaving it subtracted. Samples outside of the map count as zero like in posProcessing.shader.
+ * The kernel works on rectangular tiles: the horizontal sums cover the tile plus
+ * blurSize halo rows above and below it and read blurSize halo columns on both sides.
+ * The vertical pass and the mix do not depend on the number of channels, only the horizontal sums do.
+ * Subclasses implement the row operations of the vertical pass
+ */
+abstract class SeparableDiffuseKernel implements DiffuseKernel {
+
+    /** scratch memory of the worker threads: horizontal sums followed by the accumulator row */
+    private final ThreadLocal<float[]> scratch = ThreadLocal.withInitial(() -> new float[0]);
+
+    @Override
+    public void diffuseTile(float[] source, float[] target, int width, int height, int channels, int fromX, int toX, int fromRow, int toRow, int blurSize, float diffuseWeight, float[] evaporate) {
+        int rowLength = width * channels;
+        int tileLength = (toX - fromX) * channels;
+        int firstSumRow = Math.max(0, fromRow - blurSize);
+        int endSumRow = Math.min(height, toRow + blurSize);
+        int sumRows = endSumRow - firstSumRow;
+
+        float[] sums = scratch.get();
+        if(sums.length < (sumRows + 1) * tileLength) {
+            sums = new float[(sumRows + 1) * tileLength];
+            scratch.set(sums);
+        }
+        int accumulator = sumRows * tileLength;
+
+        // halo rows above and below the tile, halo columns are read by the horizontal sums
+        for(int y = firstSumRow; y < endSumRow; y++) {
+            if(channels == 4) {
+                horizontalSums(source, y * rowLength, sums, (y - firstSumRow) * tileLength, width, fromX, toX, blurSize);
+            } else {
+                horizontalSumsRedBlue(source, y * rowLength, sums, (y - firstSumRow) * tileLength, width, fromX, toX, blurSize);
+            }
+        }
+
+        Arrays.fill(sums, accumulator, accumulator + tileLength, 0f);
+        for(int y = firstSumRow; y < Math.min(height, fromRow + blurSize); y++) {
+            addRow(sums, (y - firstSumRow) * tileLength, accumulator, tileLength);
+        }
+
+        float inverseArea = 1f / ((blurSize * 2 + 1) * (blurSize * 2 + 1));
+        for(int y = fromRow; y < toRow; y++) {
+            if(y + blurSize < height) {
+                addRow(sums, (y + blurSize - firstSumRow) * tileLength, accumulator, tileLength);
+            }
+            finishRow(source, target, y * rowLength + fromX * channels, sums, accumulator, tileLength, inverseArea, diffuseWeight, evaporate);
+            if(y - blurSize >= 0) {
+                subtractRow(sums, (y - blurSize - firstSumRow) * tileLength, accumulator, tileLength);
+            }
+        }
+    }
+
+    /**
+     * sliding window sums over 2 * blurSize + 1 pixels of the pixels [fromX, toX) of one rgba row
+     *
+     * @param source map the row is read from
+     * @param sourceOffset index of the first float of the row
+     * @param sums array the sums are written to
+     * @param sumsOffset index the sums of the pixel fromX are written to
+     * @param width row length in pixels
+     * @param fromX first pixel
+     * @param toX end of the pixel range (exclusive)
+     * @param blurSize blur radius
+     */
+    protected void horizontalSums(float[] source, int sourceOffset, float[] sums, int sumsOffset, int width, int fromX, int toX, int blurSize) {
+        float sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+        for(int x = Math.max(0, fromX - blurSize); x < Math.min(fromX + blurSize, width); x++) {
+            int index = sourceOffset + x * 4;
+            sum0 += source[index];
+            sum1 += source[index + 1];
+            sum2 += source[index + 2];
+            sum3 += source[index + 3];
+        }
+        for(int x = fromX; x < toX; x++) {
+            if(x + blurSize < width) {
+                int entering = sourceOffset + (x + blurSize) * 4;
+                sum0 += source[entering];
+                sum1 += source[entering + 1];
+                sum2 += source[entering + 2];
+                sum3 += source[entering + 3];
+            }
+            int index = sumsOffset + (x - fromX) * 4;
+            sums[index] = sum0;
+            sums[index + 1] = sum1;
+            sums[index + 2] = sum2;
+            sums[index + 3] = sum3;
+            if(x - blurSize >= 0) {
+                int leaving = sourceOffset + (x - blurSize) * 4;
+                sum0 -= source[leaving];
+                sum1 -= source[leaving + 1];
+                sum2 -= source[leaving + 2];
+                sum3 -= source[leaving + 3];
+            }
+        }
+    }
+
+    /**
+     * horizontalSums() of a row with the two channels (red, blue) of the red blue layout
+     */
+    protected void horizontalSumsRedBlue(float[] source, int sourceOffset, float[] sums, int sumsOffset, int width, int fromX, int toX, int blurSize) {
+        float sum0 = 0, sum1 = 0;
+        for(int x = Math.max(0, fromX - blurSize); x < Math.min(fromX + blurSize, width); x++) {
+            int index = sourceOffset + x * 2;
+            sum0 += source[index];
+            sum1 += source[index + 1];
+        }
+        for(int x = fromX; x < toX; x++) {
+            if(x + blurSize < width) {
+                int entering = sourceOffset + (x + blurSize) * 2;
+                sum0 += source[entering];
+                sum1 += source[entering + 1];
+            }
+            int index = sumsOffset + (x - fromX) * 2;
+            sums[index] = sum0;
+            sums[index + 1] = sum1;
+            if(x - blurSize >= 0) {
+                int leaving = sourceOffset + (x - blurSize) * 2;
+                sum0 -= source[leaving];
+                sum1 -= source[leaving + 1];
+            }
+        }
+    }
+
+    /**
+     * adds a row of horizontal sums to the accumulator row
+     *
+     * @param sums scratch buffer
+     * @param rowOffset index of the added row in the scratch buffer
+     * @param accumulator index of the accumulator row in the scratch buffer
+     * @param length tile row length in floats
+     */
+    protected abstract void addRow(float[] sums, int rowOffset, int accumulator, int length);
+
+    /**
+     * subtracts a row of horizontal sums from the accumulator row
+     *
+     * @param sums scratch buffer
+     * @param rowOffset index of the subtracted row in the scratch buffer
+     * @param accumulator index of the accumulator row in the scratch buffer
+     * @param length tile row length in floats
+     */
+    protected abstract void subtractRow(float[] sums, int rowOffset, int accumulator, int length);
+
+    /**
+     * mixes the blurred row into the original one, evaporates it and writes the result
+     *
+     * @param source map the original values are read from
+     * @param target map the result is written to
+     * @param rowOffset index of the first float of the tile row in both maps, a multiple of the channel count
+     * @param sums scratch buffer
+     * @param accumulator index of the accumulator row (box sums of the row) in the scratch buffer
+     * @param length tile row length in floats
+     * @param inverseArea one over the number of pixels in the blur box
+     * @param diffuseWeight diffuseSpeed * deltaTime
+     * @param evaporate evaporation of the channels for this step, four entries, a two channel pattern is repeated
+     */
+    protected abstract void finishRow(float[] source, float[] target, int rowOffset, float[] sums, int accumulator, int length, float inverseArea, float diffuseWeight, float[] evaporate);
+}
@@ -0,0 +1,195 @@
+package engine.simulation;
+
+import java.util.Arrays;
+
+/**
+ * diffuse and evaporate pass of posProcessing.shader on a trail map with 4 (rgba) or 2 (red and blue) channels of 16 bit unsigned normalized values
+ * (0 to 65535 stands for 0 to 1). Same separable sliding window sums as SeparableDiffuseKernel, but the sums are ints,
+ * so they are exact and the sliding windows do not collect rounding errors. They fit into an int for blur radii of up to 90 (DiffusionStage.MAX_SHORT_BLUR_SIZE).
+ * Only the mix and the evaporation of the finished box sums are done in float before the result is rounded back to 16 bit.
+ * The map moves half the bytes of a float map per step
+ */
+class ShortDiffuseKernel {
+
+    /** value standing for 1 */
+    static final int ONE = 0xFFFF;
+
+    /**
+     * adding 2^23 to a float between 0 and 65535 rounds it to the nearest integer and leaves that integer
+     * in the low 16 bits of the float, which is much faster than a float to int conversion in the vector kernel
+     */
+    static final float ROUNDING_OFFSET = 1 << 23;
+
+    /** scratch memory of the worker threads: horizontal sums followed by the accumulator row */
+    private final ThreadLocal<int[]> scratch = ThreadLocal.withInitial(() -> new int[0]);
+
+    /**
+     * diffuses and evaporates a rectangular tile of the map
+     *
+     * @param source trail map the values are read from
+     * @param target trail map the result is written to, must not be the source
+     * @param width trail map width in pixels
+     * @param height trail map height in pixels
+     * @param channels number of channels per pixel, 4 or 2
+     * @param fromX first column
+     * @param toX end of the column range (exclusive)
+     * @param fromRow first row
+     * @param toRow end of the row range (exclusive)
+     * @param blurSize blur radius in pixels
+     * @param diffuseWeight diffuseSpeed * deltaTime
+     * @param evaporate evaporation of the channels for this step scaled to 0 to 65535, four entries, a two channel pattern is repeated
+     */
+    void diffuseTile(short[] source, short[] target, int width, int height, int channels, int fromX, int toX, int fromRow, int toRow, int blurSize, float diffuseWeight, float[] evaporate) {
+        int rowLength = width * channels;
+        int tileLength = (toX - fromX) * channels;
+        int firstSumRow = Math.max(0, fromRow - blurSize);
+        int endSumRow = Math.min(height, toRow + blurSize);
+        int sumRows = endSumRow - firstSumRow;
+
+        int[] sums = scratch.get();
+        if(sums.length < (sumRows + 1) * tileLength) {
+            sums = new int[(sumRows + 1) * tileLength];
+            scratch.set(sums);
+        }
+        int accumulator = sumRows * tileLength;
+
+        for(int y = firstSumRow; y < endSumRow; y++) {
+            if(channels == 4) {
+                horizontalSums(source, y * rowLength, sums, (y - firstSumRow) * tileLength, width, fromX, toX, blurSize);
+            } else {
+                horizontalSumsRedBlue(source, y * rowLength, sums, (y - firstSumRow) * tileLength, width, fromX, toX, blurSize);
+            }
+        }
+
+        Arrays.fill(sums, accumulator, accumulator + tileLength, 0);
+        for(int y = firstSumRow; y < Math.min(height, fromRow + blurSize); y++) {
+            addRow(sums, (y - firstSumRow) * tileLength, accumulator, tileLength);
+        }
+
+        float inverseArea = 1f / ((blurSize * 2 + 1) * (blurSize * 2 + 1));
+        for(int y = fromRow; y < toRow; y++) {
+            if(y + blurSize < height) {
+                addRow(sums, (y + blurSize - firstSumRow) * tileLength, accumulator, tileLength);
+            }
+            finishRow(source, target, y * rowLength + fromX * channels, sums, accumulator, tileLength, inverseArea, diffuseWeight, evaporate);
+            if(y - blurSize >= 0) {
+                subtractRow(sums, (y - blurSize - firstSumRow) * tileLength, accumulator, tileLength);
+            }
+        }
+    }
+
+    /**
+     * sliding window sums over 2 * blurSize + 1 pixels of the pixels [fromX, toX) of one rgba row
+     */
+    private static void horizontalSums(short[] source, int sourceOffset, int[] sums, int sumsOffset, int width, int fromX, int toX, int blurSize) {
+        int sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+        for(int x = Math.max(0, fromX - blurSize); x < Math.min(fromX + blurSize, width); x++) {
+            int index = sourceOffset + x * 4;
+            sum0 += source[index] & ONE;
+            sum1 += source[index + 1] & ONE;
+            sum2 += source[index + 2] & ONE;
+            sum3 += source[index + 3] & ONE;
+        }
+        for(int x = fromX; x < toX; x++) {
+            if(x + blurSize < width) {
+                int entering = sourceOffset + (x + blurSize) * 4;
+                sum0 += source[entering] & ONE;
+                sum1 += source[entering + 1] & ONE;
+                sum2 += source[entering + 2] & ONE;
+                sum3 += source[entering + 3] & ONE;
+            }
+            int index = sumsOffset + (x - fromX) * 4;
+            sums[index] = sum0;
+            sums[index + 1] = sum1;
+            sums[index + 2] = sum2;
+            sums[index + 3] = sum3;
+            if(x - blurSize >= 0) {
+                int leaving = sourceOffset + (x - blurSize) * 4;
+                sum0 -= source[leaving] & ONE;
+                sum1 -= source[leaving + 1] & ONE;
+                sum2 -= source[leaving + 2] & ONE;
+                sum3 -= source[leaving + 3] & ONE;
+            }
+        }
+    }
+
+    /**
+     * horizontalSums() of a row with the two channels (red, blue) of the red blue layout
+     */
+    private static void horizontalSumsRedBlue(short[] source, int sourceOffset, int[] sums, int sumsOffset, int width, int fromX, int toX, int blurSize) {
+        int sum0 = 0, sum1 = 0;
+        for(int x = Math.max(0, fromX - blurSize); x < Math.min(fromX + blurSize, width); x++) {
+            int index = sourceOffset + x * 2;
+            sum0 += source[index] & ONE;
+            sum1 += source[index + 1] & ONE;
+        }
+        for(int x = fromX; x < toX; x++) {
+            if(x + blurSize < width) {
+                int entering = sourceOffset + (x + blurSize) * 2;
+                sum0 += source[entering] & ONE;
+                sum1 += source[entering + 1] & ONE;
+            }
+            int index = sumsOffset + (x - fromX) * 2;
+            sums[index] = sum0;
+            sums[index + 1] = sum1;
+            if(x - blurSize >= 0) {
+                int leaving = sourceOffset + (x - blurSize) * 2;
+                sum0 -= source[leaving] & ONE;
+                sum1 -= source[leaving + 1] & ONE;
+            }
+        }
+    }
+
+    protected void addRow(int[] sums, int rowOffset, int accumulator, int length) {
+        for(int i = 0; i < length; i++) {
+            sums[accumulator + i] += sums[rowOffset + i];
+        }
+    }
+
+    protected void subtractRow(int[] sums, int rowOffset, int accumulator, int length) {
+        for(int i = 0; i < length; i++) {
+            sums[accumulator + i] -= sums[rowOffset + i];
+        }
+    }
+
+    /**
+     * mixes the blurred row into the original one, evaporates it and writes the result
+     *
+     * @param source map the original values are read from
+     * @param target map the result is written to
+     * @param rowOffset index of the first short of the tile row in both maps
+     * @param sums scratch buffer
+     * @param accumulator index of the accumulator row (box sums of the row) in the scratch buffer
+     * @param length tile row length in shorts
+     * @param inverseArea one over the number of pixels in the blur box
+     * @param diffuseWeight diffuseSpeed * deltaTime
+     * @param evaporate evaporation of the channels for this step scaled to 0 to 65535, four entries, a two channel pattern is repeated
+     */
+    protected void finishRow(short[] source, short[] target, int rowOffset, int[] sums, int accumulator, int length, float inverseArea, float diffuseWeight, float[] evaporate) {
+        finishRange(source, target, rowOffset, sums, accumulator, 0, length, inverseArea, diffuseWeight, evaporate);
+    }
+
+    /**
+     * finishes the shorts [from, to) of a row, used by the vector kernel for the tail of a row
+     */
+    static void finishRange(short[] source, short[] target, int rowOffset, int[] sums, int accumulator, int from, int to, float inverseArea, float diffuseWeight, float[] evaporate) {
+        for(int i = from; i < to; i++) {
+            float originalValue = source[rowOffset + i] & ONE;
+            float blurResult = sums[accumulator + i] * inverseArea;
+            float value = originalValue + (blurResult - originalValue) * diffuseWeight - evaporate[i & 3];
+            value = value < 0 ? 0 : (value > ONE ? ONE : value);
+            target[rowOffset + i] = (short) Float.floatToRawIntBits(value + ROUNDING_OFFSET);
+        }
+    }
+
+    /**
+     * @return the vector api kernel if the jdk.incubator.vector module is available
+     * and the cpu has vectors of at least four ints, otherwise the scalar kernel
+     */
+    static ShortDiffuseKernel create() {
+        if(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent() && VectorShortDiffuseKernel.isSupported()) {
+            return new VectorShortDiffuseKernel();
+        }
+        return new ShortDiffuseKernel();
+    }
+}
@@ -0,0 +1,39 @@
+package engine.simulation;
+
+/**
+ * Interface implemented by the classes that advance the slime simulation.
+ * A backend owns the agents and the trail map and performs one
+ * agent step followed by one diffuse and evaporate pass per call of step()
+ */
+public interface SimulationBackend {
+
+    /**
+     * creates the resources of the backend and takes over the initial agents
+     *
+     * @param settings simulation parameters
+     * @param agents initial agents
+     * @throws Exception if the backend cant be created
+     */
+    void init(SimulationSettings settings, AgentStore agents) throws Exception;
+
+    /**
+     * performs one simulation step: sense, steer, move and deposit for every agent,
+     * then blur and evaporate the trail map
+     *
+     * @param settings simulation parameters used for this step
+     */
+    void step(SimulationSettings settings);
+
+    /**
+     * parks the agents from the given index on: they keep their slots and their state,
+     * but do not sense, move or deposit until they are activated again. nothing is reallocated
+     *
+     * @param count number of active agents, the agents 0 to count - 1 are simulated
+     */
+    void setActiveAgents(int count);
+
+    /**
+     * releases all the resources of the backend
+     */
+    void cleanup();
+}
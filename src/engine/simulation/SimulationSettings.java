@@ -0,0 +1,426 @@
+package engine.simulation;
+
+import org.joml.Vector4f;
+
+/**
+ * parameters of the slime simulation shared by all simulation backends.
+ * the values are read every step, so changing them takes effect on the next step
+ */
+public class SimulationSettings {
+
+    /** default width of the trail map in pixels, used by the window and the headless program */
+    public static final int DEFAULT_WIDTH = 1920;
+
+    /** default height of the trail map in pixels */
+    public static final int DEFAULT_HEIGHT = 1200;
+
+    /** seed of the random numbers, runs with the same seed and parameters are reproducible */
+    private int seed = 1;
+
+    /** name of the spawn distribution the agents start in, see SpawnDistribution.byName() */
+    private String spawnDistribution = "ring";
+
+    /** number of agents allocated, the upper limit of the agent budget, read when the agents are created */
+    private int agentCount = 1000000;
+
+    /** lower limit of the active agents of the agent budget */
+    private int minAgents = 10000;
+
+    /** time in milliseconds a simulation step should take, the agent budget adapts the active agents to it. 0 keeps all agents active */
+    private float targetStepTime = 0f;
+
+    /** width of the trail map in pixels */
+    private final int width;
+
+    /** height of the trail map in pixels */
+    private final int height;
+
+    /** storage format of the trail map, read when the backend is initialised */
+    private TrailPrecision trailPrecision = TrailPrecision.FLOAT32;
+
+    /** channels stored per pixel of the trail map, read when the backend is initialised */
+    private TrailLayout trailLayout = TrailLayout.RGBA;
+
+    /** time step of one simulation step */
+    private float deltaTime = 1f;
+
+    /** factor the blurred value is mixed into the trail map with */
+    private float diffuseSpeed = 1f;
+
+    /** radius of the box blur of the diffusion in pixels */
+    private int blurSize = 1;
+
+    /** edge length of the square tiles the java diffusion works on, 0 processes full rows */
+    private int tileSize = 128;
+
+    /** value subtracted from every channel of the trail map per time step */
+    private Vector4f evaporateSpeed = new Vector4f(0.005f, 0.03f, 0.005f, 0.05f);
+
+    /** angle between the forward sensor and the side sensors */
+    private float sensorAngleSpacing = 1f;
+
+    /** maximum heading change per time step */
+    private float turnSpeed = 0.1f;
+
+    /** distance of the sensors from the agent */
+    private float sensorOffsetDist = 5;
+
+    /** half size of the square sensor window */
+    private int sensorSize = 3;
+
+    /** number of directions the headings are quantized to (power of two), 0 for continuous headings */
+    private int headingResolution = 0;
+
+    /** if true the sensors read a summed area table built once per step instead of looping over the window */
+    private boolean integralSensing = false;
+
+    /** how the agents write their trail into the trail map */
+    private DepositMode depositMode = DepositMode.DIRECT;
+
+    /** what happens to agents that step over the edge of the map */
+    private BoundaryMode boundaryMode = BoundaryMode.CLAMP_RANDOMIZE;
+
+    /** number of steps between two sorts of the agents by their z-order cell, 0 never sorts */
+    private int sortInterval = 0;
+
+    /** number of simulation steps run back to back per presented frame, 0 runs as many as fit into the frame budget */
+    private int stepsPerFrame = 1;
+
+    /** time in milliseconds the unlimited mode spends on steps per presented frame */
+    private float frameBudget = 12f;
+
+    /** if true the diffusion skips the tiles that hold no mass, read when the backend is initialised */
+    private boolean activeTiles = false;
+
+    /** if true the java backend evaporates tiles only when they are needed, read when the backend is initialised */
+    private boolean lazyEvaporation = false;
+
+    /** if true the java backend diffuses the map and moves the agents tile by tile in one pass */
+    private boolean fusedStep = false;
+
+    /** maximum number of agents in one gpu agent buffer, 0 for the largest the gpu allows, read when the backend is initialised */
+    private int agentChunkSize = 0;
+
+    /**
+     * creates the settings with the default parameters
+     *
+     * @param width of the trail map
+     * @param height of the trail map
+     */
+    public SimulationSettings(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * @return width of the trail map in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return height of the trail map in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    public TrailPrecision getTrailPrecision() {
+        return trailPrecision;
+    }
+
+    /**
+     * @param trailPrecision storage format of the trail map, only read when the backend is initialised
+     */
+    public void setTrailPrecision(TrailPrecision trailPrecision) {
+        this.trailPrecision = trailPrecision;
+    }
+
+    public TrailLayout getTrailLayout() {
+        return trailLayout;
+    }
+
+    /**
+     * @param trailLayout channels stored per pixel of the trail map, only read when the backend is initialised.
+     *                    RGBA is the default, RED_BLUE only approximates the green of the display
+     */
+    public void setTrailLayout(TrailLayout trailLayout) {
+        this.trailLayout = trailLayout;
+    }
+
+    public int getSeed() {
+        return seed;
+    }
+
+    public void setSeed(int seed) {
+        this.seed = seed;
+    }
+
+    public int getAgentCount() {
+        return agentCount;
+    }
+
+    /**
+     * @param agentCount number of agents allocated, only read when the agents are created
+     */
+    public void setAgentCount(int agentCount) {
+        this.agentCount = agentCount;
+    }
+
+    public int getMinAgents() {
+        return minAgents;
+    }
+
+    public void setMinAgents(int minAgents) {
+        this.minAgents = minAgents;
+    }
+
+    public float getTargetStepTime() {
+        return targetStepTime;
+    }
+
+    /**
+     * the agent budget measures the steps and activates or parks agents between minAgents and agentCount
+     * to hold the target, parked agents keep their slots in the agent buffers
+     *
+     * @param targetStepTime time in milliseconds one step should take, 0 keeps all agents active
+     */
+    public void setTargetStepTime(float targetStepTime) {
+        this.targetStepTime = targetStepTime;
+    }
+
+    public String getSpawnDistribution() {
+        return spawnDistribution;
+    }
+
+    public void setSpawnDistribution(String spawnDistribution) {
+        this.spawnDistribution = spawnDistribution;
+    }
+
+    public float getDeltaTime() {
+        return deltaTime;
+    }
+
+    public void setDeltaTime(float deltaTime) {
+        this.deltaTime = deltaTime;
+    }
+
+    public float getDiffuseSpeed() {
+        return diffuseSpeed;
+    }
+
+    public void setDiffuseSpeed(float diffuseSpeed) {
+        this.diffuseSpeed = diffuseSpeed;
+    }
+
+    public int getBlurSize() {
+        return blurSize;
+    }
+
+    /**
+     * @param blurSize radius of the diffusion blur in pixels, the gpu backend supports up to 127.
+     * the cpu backend supports up to 90 with a 16 bit trail precision, its int box sums overflow above
+     */
+    public void setBlurSize(int blurSize) {
+        this.blurSize = blurSize;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public void setTileSize(int tileSize) {
+        this.tileSize = tileSize;
+    }
+
+    public Vector4f getEvaporateSpeed() {
+        return evaporateSpeed;
+    }
+
+    public void setEvaporateSpeed(Vector4f evaporateSpeed) {
+        this.evaporateSpeed = evaporateSpeed;
+    }
+
+    public float getSensorAngleSpacing() {
+        return sensorAngleSpacing;
+    }
+
+    public void setSensorAngleSpacing(float sensorAngleSpacing) {
+        this.sensorAngleSpacing = sensorAngleSpacing;
+    }
+
+    public float getTurnSpeed() {
+        return turnSpeed;
+    }
+
+    public void setTurnSpeed(float turnSpeed) {
+        this.turnSpeed = turnSpeed;
+    }
+
+    public float getSensorOffsetDist() {
+        return sensorOffsetDist;
+    }
+
+    public void setSensorOffsetDist(float sensorOffsetDist) {
+        this.sensorOffsetDist = sensorOffsetDist;
+    }
+
+    public int getSensorSize() {
+        return sensorSize;
+    }
+
+    public void setSensorSize(int sensorSize) {
+        this.sensorSize = sensorSize;
+    }
+
+    public int getHeadingResolution() {
+        return headingResolution;
+    }
+
+    /**
+     * @param headingResolution number of directions the headings are quantized to (power of two, for example 1024),
+     *                          0 for continuous headings
+     */
+    public void setHeadingResolution(int headingResolution) {
+        this.headingResolution = headingResolution;
+    }
+
+    public boolean isIntegralSensing() {
+        return integralSensing;
+    }
+
+    /**
+     * @param integralSensing if true the sensors read a summed area table, supports a sensorSize of up to 90
+     */
+    public void setIntegralSensing(boolean integralSensing) {
+        this.integralSensing = integralSensing;
+    }
+
+    public DepositMode getDepositMode() {
+        return depositMode;
+    }
+
+    /**
+     * @param depositMode DIRECT for the racy read and write of the original shader,
+     *                    PRIVATE_BUFFERS or ATOMIC to keep every deposit
+     */
+    public void setDepositMode(DepositMode depositMode) {
+        this.depositMode = depositMode;
+    }
+
+    public BoundaryMode getBoundaryMode() {
+        return boundaryMode;
+    }
+
+    public void setBoundaryMode(BoundaryMode boundaryMode) {
+        this.boundaryMode = boundaryMode;
+    }
+
+    public int getSortInterval() {
+        return sortInterval;
+    }
+
+    /**
+     * the sort keeps agents that are close on the map close in the agent buffer, so the sensor reads and deposits
+     * of neighbouring agents hit the same cache lines. sorting changes the agent ids the random numbers are keyed with,
+     * runs are only reproducible with the same interval
+     *
+     * @param sortInterval number of steps between two sorts, 0 never sorts
+     */
+    public void setSortInterval(int sortInterval) {
+        this.sortInterval = sortInterval;
+    }
+
+    public boolean isActiveTiles() {
+        return activeTiles;
+    }
+
+    /**
+     * outside of the network most of the map is zero. with active tiles the backends keep a flag per tile
+     * that is set by the deposits and by the diffusion if a tile still holds mass, and only diffuse
+     * the tiles that hold mass or border on one. the result does not change. the java backend uses
+     * the tiles of the tile size at initialisation and ignores the flag with a tile size of 0
+     *
+     * @param activeTiles true to skip the diffusion of empty tiles, only read when the backend is initialised
+     */
+    public void setActiveTiles(boolean activeTiles) {
+        this.activeTiles = activeTiles;
+    }
+
+    public boolean isLazyEvaporation() {
+        return lazyEvaporation;
+    }
+
+    /**
+     * with lazy evaporation the java backend records per tile up to which step it has been evaporated
+     * and applies the missed steps when the agents sense or deposit on the tile or the map is read.
+     * this is exact only without a diffusion, so it is used in the steps with a diffuseSpeed or deltaTime of 0
+     * and without integral sensing (which reads the whole map), all other steps evaporate eagerly
+     *
+     * @param lazyEvaporation true to evaporate idle tiles lazily, only read when the backend is initialised
+     */
+    public void setLazyEvaporation(boolean lazyEvaporation) {
+        this.lazyEvaporation = lazyEvaporation;
+    }
+
+    public int getStepsPerFrame() {
+        return stepsPerFrame;
+    }
+
+    /**
+     * the steps of a frame run back to back and the trail map is presented once after them,
+     * so the simulation speed is not tied to the frame rate
+     *
+     * @param stepsPerFrame number of steps per presented frame, 0 for the unlimited mode that runs steps until the frame budget is used up
+     */
+    public void setStepsPerFrame(int stepsPerFrame) {
+        this.stepsPerFrame = stepsPerFrame;
+    }
+
+    public float getFrameBudget() {
+        return frameBudget;
+    }
+
+    /**
+     * should stay below the frame time of the display, with vSync the present still has to make the next refresh
+     *
+     * @param frameBudget time in milliseconds the unlimited mode spends on steps per presented frame
+     */
+    public void setFrameBudget(float frameBudget) {
+        this.frameBudget = frameBudget;
+    }
+
+    public boolean isFusedStep() {
+        return fusedStep;
+    }
+
+    /**
+     * the fused step of the java backend diffuses the trail map tile by tile and moves the agents of a tile
+     * right after it, so the map is read and written once per step and there is no attraction field pass.
+     * the agents deposit on the diffused map, so the deposits of a step are blurred and evaporated one step
+     * later than in the two pass step and the patterns differ slightly. needs a tile size above 0 and is not
+     * used with integral sensing, the deposit mode does not apply.
+     * off by default: it streams fewer bytes, but the sensors read two map channels instead of the attraction field,
+     * which made it slower than the two pass step on the machines measured so far, see FusedStepBenchmark
+     *
+     * @param fusedStep true to use the fused step
+     */
+    public void setFusedStep(boolean fusedStep) {
+        this.fusedStep = fusedStep;
+    }
+
+    public int getAgentChunkSize() {
+        return agentChunkSize;
+    }
+
+    /**
+     * the gpu backend splits the agents into chunks with one shader storage buffer and one dispatch each,
+     * the size is rounded down to a multiple of the sort block and limited by the gpu
+     *
+     * @param agentChunkSize maximum number of agents per chunk, 0 for the largest the gpu allows
+     */
+    public void setAgentChunkSize(int agentChunkSize) {
+        this.agentChunkSize = agentChunkSize;
+    }
+}
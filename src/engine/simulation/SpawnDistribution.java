@@ -0,0 +1,154 @@
+package engine.simulation;
+
+/**
+ * strategy that decides where an agent starts, which way it faces and which species it has.
+ * All random values come from CounterRandom keyed by the seed and the agent id,
+ * so agents can be placed in any order on any thread
+ */
+public interface SpawnDistribution {
+
+    /**
+     * places one agent
+     *
+     * @param agents store the agent is written to
+     * @param id index of the agent
+     * @param seed seed of the run
+     */
+    void place(AgentStore agents, int id, int seed);
+
+    /**
+     * @param seed seed of the run
+     * @param id index of the agent
+     * @return species of the agent, both species are equally likely
+     */
+    static int randomSpecies(int seed, int id) {
+        return CounterRandom.nextFloat(seed, id, 0, 3) > 0.5f ? 0 : 1;
+    }
+
+    /**
+     * agents in a ring around a centre, facing outwards
+     *
+     * @param centreX x of the centre
+     * @param centreY y of the centre
+     * @param innerRadius inner radius of the ring
+     * @param outerRadius outer radius of the ring
+     * @return the distribution
+     */
+    static SpawnDistribution ring(float centreX, float centreY, float innerRadius, float outerRadius) {
+        return (agents, id, seed) -> {
+            float angle = (float) (CounterRandom.nextFloat(seed, id, 0, 0) * Math.PI * 2);
+            float dist = innerRadius + (outerRadius - innerRadius) * CounterRandom.nextFloat(seed, id, 0, 1);
+            agents.set(id, (float) (centreX + dist * Math.cos(angle)), (float) (centreY + dist * Math.sin(angle)), angle, randomSpecies(seed, id));
+        };
+    }
+
+    /**
+     * agents evenly spread over a disk with random headings
+     *
+     * @param centreX x of the centre
+     * @param centreY y of the centre
+     * @param radius radius of the disk
+     * @return the distribution
+     */
+    static SpawnDistribution disk(float centreX, float centreY, float radius) {
+        return (agents, id, seed) -> {
+            float angle = (float) (CounterRandom.nextFloat(seed, id, 0, 0) * Math.PI * 2);
+            float dist = (float) (radius * Math.sqrt(CounterRandom.nextFloat(seed, id, 0, 1)));
+            float heading = (float) (CounterRandom.nextFloat(seed, id, 0, 2) * Math.PI * 2);
+            agents.set(id, (float) (centreX + dist * Math.cos(angle)), (float) (centreY + dist * Math.sin(angle)), heading, randomSpecies(seed, id));
+        };
+    }
+
+    /**
+     * agents evenly spread over the whole map with random headings
+     *
+     * @param width map width
+     * @param height map height
+     * @return the distribution
+     */
+    static SpawnDistribution uniform(int width, int height) {
+        return (agents, id, seed) -> {
+            float heading = (float) (CounterRandom.nextFloat(seed, id, 0, 2) * Math.PI * 2);
+            agents.set(id, width * CounterRandom.nextFloat(seed, id, 0, 0), height * CounterRandom.nextFloat(seed, id, 0, 1), heading, randomSpecies(seed, id));
+        };
+    }
+
+    /**
+     * agents on a vertical line, all facing left
+     *
+     * @param x x of the line
+     * @param height map height
+     * @return the distribution
+     */
+    static SpawnDistribution line(float x, int height) {
+        return (agents, id, seed) -> agents.set(id, x, height * CounterRandom.nextFloat(seed, id, 0, 1), (float) Math.PI, randomSpecies(seed, id));
+    }
+
+    /**
+     * agents placed with a probability proportional to the weights of an image that is stretched over the map,
+     * with random headings. The cumulative weights are computed once when the distribution is created
+     *
+     * @param weights non negative weight per image pixel, row major
+     * @param imageWidth image width
+     * @param imageHeight image height
+     * @param width map width
+     * @param height map height
+     * @return the distribution
+     */
+    static SpawnDistribution imageWeighted(float[] weights, int imageWidth, int imageHeight, int width, int height) {
+        double[] cumulative = new double[imageWidth * imageHeight];
+        double total = 0;
+        for(int i = 0; i < cumulative.length; i++) {
+            total += Math.max(0, weights[i]);
+            cumulative[i] = total;
+        }
+        if(total <= 0) {
+            throw new IllegalArgumentException("Image weights are all zero");
+        }
+        double weightSum = total;
+        float scaleX = width / (float) imageWidth;
+        float scaleY = height / (float) imageHeight;
+
+        return (agents, id, seed) -> {
+            double target = CounterRandom.nextFloat(seed, id, 0, 0) * weightSum;
+            int low = 0;
+            int high = cumulative.length - 1;
+            while(low < high) {
+                int middle = (low + high) >>> 1;
+                if(cumulative[middle] <= target) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            float x = (low % imageWidth + CounterRandom.nextFloat(seed, id, 0, 1)) * scaleX;
+            float y = (low / imageWidth + CounterRandom.nextFloat(seed, id, 0, 4)) * scaleY;
+            float heading = (float) (CounterRandom.nextFloat(seed, id, 0, 2) * Math.PI * 2);
+            agents.set(id, Math.min(x, width - 1), Math.min(y, height - 1), heading, randomSpecies(seed, id));
+        };
+    }
+
+    /**
+     * creates one of the distributions that only need the map size, with default parameters
+     *
+     * @param name ring, disk, uniform or line
+     * @param width map width
+     * @param height map height
+     * @return the distribution
+     * @throws IllegalArgumentException if there is no distribution with this name
+     */
+    static SpawnDistribution byName(String name, int width, int height) {
+        switch (name) {
+            case "ring":
+                return ring(width / 2f, height / 2f, 10, 20);
+            case "disk":
+                return disk(width / 2f, height / 2f, Math.min(width, height) / 4f);
+            case "uniform":
+                return uniform(width, height);
+            case "line":
+                return line(width / 2f, height);
+            default:
+                throw new IllegalArgumentException("Unknown spawn distribution: " + name + " (image weighted spawning needs an image, use imageWeighted())");
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package engine.simulation;
+
+import org.joml.Vector2f;
+import org.joml.Vector4f;
+
+/**
+ * channels stored per pixel of the trail map
+ */
+public enum TrailLayout {
+
+    /**
+     * red, green, blue and alpha like the original shaders.
+     * green and alpha are only written by the deposit for the display
+     */
+    RGBA(4),
+
+    /**
+     * only red (trail of species 1) and blue (trail of species 0), the channels the sensors read.
+     * the diffusion moves half the bytes of RGBA. lossy for the display: green is not stored,
+     * fragment.shader estimates it from red and blue, so the colours only approximate RGBA.
+     * LayoutBenchmark measures the difference of the displayed images
+     */
+    RED_BLUE(2);
+
+    /** number of channels per pixel */
+    private final int channels;
+
+    TrailLayout(int channels) {
+        this.channels = channels;
+    }
+
+    /**
+     * @return number of channels per pixel
+     */
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * @return offset of the blue channel in a pixel
+     */
+    public int getBlueOffset() {
+        return channels / 2;
+    }
+
+    /**
+     * @param evaporateSpeed evaporation of red, green, blue and alpha per time step
+     * @param scale time step, times 65535 for maps of 16 bit unsigned normalized values
+     * @return evaporation of the stored channels for one step, repeated to four entries
+     */
+    public float[] evaporation(Vector4f evaporateSpeed, float scale) {
+        if(this == RED_BLUE) {
+            return new float[] {evaporateSpeed.x * scale, evaporateSpeed.z * scale, evaporateSpeed.x * scale, evaporateSpeed.z * scale};
+        }
+        return new float[] {evaporateSpeed.x * scale, evaporateSpeed.y * scale, evaporateSpeed.z * scale, evaporateSpeed.w * scale};
+    }
+
+    /**
+     * green of the rgba layout follows the deposits of both species and evaporates with its own speed.
+     * the red blue layout does not store it, fragment.shader estimates it from how far red and blue
+     * have evaporated below their caps, scaled by the ratio of the evaporation speeds
+     *
+     * @param evaporateSpeed evaporation of red, green, blue and alpha
+     * @return evaporation of green relative to red and to blue, 0 if the channel does not evaporate
+     */
+    public static Vector2f greenDecay(Vector4f evaporateSpeed) {
+        float relativeToRed = evaporateSpeed.x > 0 ? evaporateSpeed.y / evaporateSpeed.x : 0;
+        float relativeToBlue = evaporateSpeed.z > 0 ? evaporateSpeed.y / evaporateSpeed.z : 0;
+        return new Vector2f(relativeToRed, relativeToBlue);
+    }
+}
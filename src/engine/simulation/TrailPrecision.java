@@ -0,0 +1,30 @@
+package engine.simulation;
+
+/**
+ * storage format of the trail map channels. The trail values are clamped to [0, 1],
+ * so 16 bit formats keep enough precision and halve the memory and the bandwidth per step
+ */
+public enum TrailPrecision {
+
+    /** 32 bit float per channel (rgba32f) */
+    FLOAT32,
+
+    /**
+     * 16 bit float per channel (rgba16f) on the gpu.
+     * the java backend has no half float arithmetic and stores the map like UNORM16
+     */
+    FLOAT16,
+
+    /**
+     * 16 bit unsigned normalized integer per channel (rgba16), 0 to 65535 stands for 0 to 1.
+     * the java backend diffuses and deposits with integer arithmetic on the shorts
+     */
+    UNORM16;
+
+    /**
+     * @return true if the java backend stores the map as 16 bit unsigned normalized values
+     */
+    public boolean isShort() {
+        return this != FLOAT32;
+    }
+}
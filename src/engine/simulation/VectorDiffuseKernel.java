@@ -0,0 +1,159 @@
+package engine.simulation;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * separable diffuse kernel with both passes and the mix and evaporation
+ * written with the incubating vector api. A row of the rgba map is treated as
+ * one flat float array, so one vector holds several whole pixels. The floats
+ * left over after the last full vector are done by the scalar code.
+ * The horizontal sums of a vector of pixels add the shifted vectors of the window for small blur sizes,
+ * larger windows slide by a whole vector of pixels at a time, which costs a fixed number of vector operations
+ * per vector. The pixels whose window reaches over the map border are done by the scalar code
+ */
+class VectorDiffuseKernel extends SeparableDiffuseKernel {
+
+    /** widest vector shape of the cpu */
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    /**
+     * @return true if a vector holds whole pixels (at least four floats)
+     */
+    static boolean isSupported() {
+        return SPECIES.length() >= 4 && SPECIES.length() % 4 == 0;
+    }
+
+    @Override
+    protected void horizontalSums(float[] source, int sourceOffset, float[] sums, int sumsOffset, int width, int fromX, int toX, int blurSize) {
+        windowSums(source, sourceOffset, sums, sumsOffset, width, fromX, toX, blurSize, 4);
+    }
+
+    @Override
+    protected void horizontalSumsRedBlue(float[] source, int sourceOffset, float[] sums, int sumsOffset, int width, int fromX, int toX, int blurSize) {
+        windowSums(source, sourceOffset, sums, sumsOffset, width, fromX, toX, blurSize, 2);
+    }
+
+    /**
+     * horizontalSums() for 4 or 2 channels
+     *
+     * @param channels number of channels per pixel
+     */
+    private void windowSums(float[] source, int sourceOffset, float[] sums, int sumsOffset, int width, int fromX, int toX, int blurSize, int channels) {
+        int pixels = SPECIES.length() / channels;
+        // the pixels whose window lies inside of the row, in whole vectors
+        int from = Math.min(toX, Math.max(fromX, blurSize));
+        int end = Math.max(from, Math.min(toX, width - blurSize));
+        int vectorEnd = from + (end - from) / pixels * pixels;
+
+        scalarSums(source, sourceOffset, sums, sumsOffset, width, fromX, from, blurSize, channels, fromX);
+        if(vectorEnd > from) {
+            int windowLength = blurSize * 2 + 1;
+            if(windowLength <= pixels * 2) {
+                for(int x = from; x < vectorEnd; x += pixels) {
+                    windowVector(source, sourceOffset + (x - blurSize) * channels, windowLength, channels)
+                            .intoArray(sums, sumsOffset + (x - fromX) * channels);
+                }
+            } else {
+                FloatVector sum = windowVector(source, sourceOffset + (from - blurSize) * channels, windowLength, channels);
+                sum.intoArray(sums, sumsOffset + (from - fromX) * channels);
+                for(int x = from + pixels; x < vectorEnd; x += pixels) {
+                    // the window of pixel x + lane gains the pixels (x - pixels + blurSize, x + blurSize] + lane
+                    // and loses the pixels [x - pixels - blurSize, x - blurSize) + lane
+                    int entering = sourceOffset + (x - pixels + blurSize + 1) * channels;
+                    int leaving = sourceOffset + (x - pixels - blurSize) * channels;
+                    FloatVector change = FloatVector.fromArray(SPECIES, source, entering)
+                            .sub(FloatVector.fromArray(SPECIES, source, leaving));
+                    for(int pixel = 1; pixel < pixels; pixel++) {
+                        change = change.add(FloatVector.fromArray(SPECIES, source, entering + pixel * channels))
+                                .sub(FloatVector.fromArray(SPECIES, source, leaving + pixel * channels));
+                    }
+                    sum = sum.add(change);
+                    sum.intoArray(sums, sumsOffset + (x - fromX) * channels);
+                }
+            }
+        }
+        scalarSums(source, sourceOffset, sums, sumsOffset, width, vectorEnd, toX, blurSize, channels, fromX);
+    }
+
+    /**
+     * @param source map the row is read from
+     * @param first index of the first float of the window of the first pixel
+     * @param windowLength window length in pixels
+     * @param channels number of channels per pixel
+     * @return window sums of the pixels of one vector
+     */
+    private static FloatVector windowVector(float[] source, int first, int windowLength, int channels) {
+        FloatVector sum = FloatVector.fromArray(SPECIES, source, first);
+        for(int pixel = 1; pixel < windowLength; pixel++) {
+            sum = sum.add(FloatVector.fromArray(SPECIES, source, first + pixel * channels));
+        }
+        return sum;
+    }
+
+    /**
+     * scalar horizontal sums of the pixels [from, to) of a row whose sums start at the pixel fromX
+     */
+    private void scalarSums(float[] source, int sourceOffset, float[] sums, int sumsOffset, int width, int from, int to, int blurSize, int channels, int fromX) {
+        if(from >= to) {
+            return;
+        }
+        int offset = sumsOffset + (from - fromX) * channels;
+        if(channels == 4) {
+            super.horizontalSums(source, sourceOffset, sums, offset, width, from, to, blurSize);
+        } else {
+            super.horizontalSumsRedBlue(source, sourceOffset, sums, offset, width, from, to, blurSize);
+        }
+    }
+
+    @Override
+    protected void addRow(float[] sums, int rowOffset, int accumulator, int length) {
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for(; i < bound; i += SPECIES.length()) {
+            FloatVector.fromArray(SPECIES, sums, accumulator + i)
+                    .add(FloatVector.fromArray(SPECIES, sums, rowOffset + i))
+                    .intoArray(sums, accumulator + i);
+        }
+        for(; i < length; i++) {
+            sums[accumulator + i] += sums[rowOffset + i];
+        }
+    }
+
+    @Override
+    protected void subtractRow(float[] sums, int rowOffset, int accumulator, int length) {
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for(; i < bound; i += SPECIES.length()) {
+            FloatVector.fromArray(SPECIES, sums, accumulator + i)
+                    .sub(FloatVector.fromArray(SPECIES, sums, rowOffset + i))
+                    .intoArray(sums, accumulator + i);
+        }
+        for(; i < length; i++) {
+            sums[accumulator + i] -= sums[rowOffset + i];
+        }
+    }
+
+    /** evaporation of the last step repeated over the lanes of a vector, kept per worker thread */
+    private final ThreadLocal<float[]> evaporatePattern = ThreadLocal.withInitial(() -> new float[SPECIES.length()]);
+
+    @Override
+    protected void finishRow(float[] source, float[] target, int rowOffset, float[] sums, int accumulator, int length, float inverseArea, float diffuseWeight, float[] evaporate) {
+        int lanes = SPECIES.length();
+        float[] pattern = evaporatePattern.get();
+        for(int lane = 0; lane < lanes; lane++) {
+            pattern[lane] = evaporate[lane & 3];
+        }
+        FloatVector evaporateVector = FloatVector.fromArray(SPECIES, pattern, 0);
+
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for(; i < bound; i += lanes) {
+            FloatVector original = FloatVector.fromArray(SPECIES, source, rowOffset + i);
+            FloatVector blurResult = FloatVector.fromArray(SPECIES, sums, accumulator + i).mul(inverseArea);
+            FloatVector diffuseValue = blurResult.sub(original).mul(diffuseWeight).add(original);
+            diffuseValue.sub(evaporateVector).max(0f).intoArray(target, rowOffset + i);
+        }
+        ScalarDiffuseKernel.finishRange(source, target, rowOffset, sums, accumulator, i, length, inverseArea, diffuseWeight, evaporate);
+    }
+}
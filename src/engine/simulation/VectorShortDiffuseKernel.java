@@ -0,0 +1,90 @@
+package engine.simulation;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * 16 bit diffuse kernel with the vertical pass on int vectors and the mix and evaporation on float vectors.
+ * The shorts of a row are loaded into a short vector of half the width and widened to ints, so one vector
+ * holds several whole pixels. The values left over after the last full vector are done by the scalar code
+ */
+class VectorShortDiffuseKernel extends ShortDiffuseKernel {
+
+    /** widest int vector shape of the cpu */
+    private static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_PREFERRED;
+
+    /** float vectors of the same shape as the int vectors */
+    private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    /** short vectors with as many lanes as the int vectors */
+    private static final VectorSpecies<Short> SHORT_SPECIES = VectorSpecies.of(short.class, VectorShape.forBitSize(Math.max(64, INT_SPECIES.vectorBitSize() / 2)));
+
+    /**
+     * @return true if a vector holds whole pixels (at least four ints)
+     */
+    static boolean isSupported() {
+        return INT_SPECIES.length() >= 4 && INT_SPECIES.length() % 4 == 0 && SHORT_SPECIES.length() == INT_SPECIES.length();
+    }
+
+    @Override
+    protected void addRow(int[] sums, int rowOffset, int accumulator, int length) {
+        int bound = INT_SPECIES.loopBound(length);
+        int i = 0;
+        for(; i < bound; i += INT_SPECIES.length()) {
+            IntVector.fromArray(INT_SPECIES, sums, accumulator + i)
+                    .add(IntVector.fromArray(INT_SPECIES, sums, rowOffset + i))
+                    .intoArray(sums, accumulator + i);
+        }
+        for(; i < length; i++) {
+            sums[accumulator + i] += sums[rowOffset + i];
+        }
+    }
+
+    @Override
+    protected void subtractRow(int[] sums, int rowOffset, int accumulator, int length) {
+        int bound = INT_SPECIES.loopBound(length);
+        int i = 0;
+        for(; i < bound; i += INT_SPECIES.length()) {
+            IntVector.fromArray(INT_SPECIES, sums, accumulator + i)
+                    .sub(IntVector.fromArray(INT_SPECIES, sums, rowOffset + i))
+                    .intoArray(sums, accumulator + i);
+        }
+        for(; i < length; i++) {
+            sums[accumulator + i] -= sums[rowOffset + i];
+        }
+    }
+
+    /** evaporation of the last step repeated over the lanes of a vector, kept per worker thread */
+    private final ThreadLocal<float[]> evaporatePattern = ThreadLocal.withInitial(() -> new float[INT_SPECIES.length()]);
+
+    @Override
+    protected void finishRow(short[] source, short[] target, int rowOffset, int[] sums, int accumulator, int length, float inverseArea, float diffuseWeight, float[] evaporate) {
+        int lanes = INT_SPECIES.length();
+        float[] pattern = evaporatePattern.get();
+        for(int lane = 0; lane < lanes; lane++) {
+            pattern[lane] = evaporate[lane & 3];
+        }
+        FloatVector evaporateVector = FloatVector.fromArray(FLOAT_SPECIES, pattern, 0);
+
+        int bound = INT_SPECIES.loopBound(length);
+        int i = 0;
+        for(; i < bound; i += lanes) {
+            IntVector originalBits = (IntVector) ShortVector.fromArray(SHORT_SPECIES, source, rowOffset + i)
+                    .convertShape(VectorOperators.S2I, INT_SPECIES, 0);
+            FloatVector original = (FloatVector) originalBits.and(ONE).convert(VectorOperators.I2F, 0);
+            FloatVector blurResult = ((FloatVector) IntVector.fromArray(INT_SPECIES, sums, accumulator + i)
+                    .convert(VectorOperators.I2F, 0)).mul(inverseArea);
+            FloatVector diffuseValue = blurResult.sub(original).mul(diffuseWeight).add(original);
+            // rounding with ROUNDING_OFFSET instead of a float to int conversion, see finishRange()
+            FloatVector result = diffuseValue.sub(evaporateVector).max(0f).min(ONE).add(ROUNDING_OFFSET);
+            ((ShortVector) result.reinterpretAsInts()
+                    .convertShape(VectorOperators.I2S, SHORT_SPECIES, 0))
+                    .intoArray(target, rowOffset + i);
+        }
+        finishRange(source, target, rowOffset, sums, accumulator, i, length, inverseArea, diffuseWeight, evaporate);
+    }
+}
@@ -0,0 +1,97 @@
+package engine.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Supplier;
+
+/**
+ * one object per worker thread of a pool, for per thread scratch space that is merged after a parallel pass.
+ * The workers are told apart by their index in the pool, so a lookup neither blocks nor locks once the
+ * object of a worker exists, and there are never more objects than workers the pool started.
+ * Threads outside of the pool share slot 0, only the thread that invokes the pool runs tasks outside of it
+ *
+ * @param <T> type of the per worker objects
+ */
+class WorkerSlots<T> {
+
+    /** pool whose workers get their own slot */
+    private final ForkJoinPool pool;
+
+    /** creates the object of a new worker */
+    private final Supplier<T> factory;
+
+    /** objects by slot, slot 0 belongs to the threads outside of the pool. replaced when it grows */
+    private volatile Object[] slots;
+
+    /**
+     * @param pool pool whose workers get their own slot
+     * @param factory creates the object of a new worker
+     */
+    WorkerSlots(ForkJoinPool pool, Supplier<T> factory) {
+        this.pool = pool;
+        this.factory = factory;
+        this.slots = new Object[pool.getParallelism() + 1];
+    }
+
+    /**
+     * @return object of the current thread, created on its first call
+     */
+    @SuppressWarnings("unchecked")
+    T get() {
+        int slot = slot();
+        Object[] current = slots;
+        if(slot < current.length && current[slot] != null) {
+            return (T) current[slot];
+        }
+        return create(slot);
+    }
+
+    /**
+     * @return objects of all slots that were used, for the merge after the parallel pass
+     */
+    @SuppressWarnings("unchecked")
+    List<T> all() {
+        List<T> used = new ArrayList<>();
+        for(Object object : slots) {
+            if(object != null) {
+                used.add((T) object);
+            }
+        }
+        return used;
+    }
+
+    /**
+     * @return slot of the current thread
+     */
+    private int slot() {
+        Thread thread = Thread.currentThread();
+        if(thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == pool) {
+            return ((ForkJoinWorkerThread) thread).getPoolIndex() + 1;
+        }
+        return 0;
+    }
+
+    /**
+     * creates the object of a slot, the pool may start more workers than its parallelism to compensate blocked ones
+     *
+     * @param slot slot of the current thread
+     * @return object of the slot
+     */
+    @SuppressWarnings("unchecked")
+    private synchronized T create(int slot) {
+        Object[] current = slots;
+        if(slot >= current.length) {
+            Object[] grown = new Object[Math.max(slot + 1, current.length * 2)];
+            System.arraycopy(current, 0, grown, 0, current.length);
+            current = grown;
+        }
+        if(current[slot] == null) {
+            current[slot] = factory.get();
+        }
+        // the volatile write publishes the new object to all()
+        slots = current;
+        return (T) current[slot];
+    }
+}
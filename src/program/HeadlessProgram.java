@@ -0,0 +1,105 @@
+package program;
+
+import engine.general.IHeadlessLogic;
+import engine.simulation.AgentSpawner;
+import engine.simulation.AgentStore;
+import engine.simulation.CpuSimulationBackend;
+import engine.simulation.SimulationSettings;
+import engine.simulation.SpawnDistribution;
+
+/**
+ * runs the simulation without a window for batch throughput runs.
+ * The compute shaders need an OpenGL context, so the headless program always uses the java backend.
+ * Every update is one simulation step, the throughput is printed every few steps and at the end
+ */
+public class HeadlessProgram implements IHeadlessLogic {
+
+    /** number of steps between two throughput reports */
+    private static final int REPORT_INTERVAL = 100;
+
+    /** parameters of the simulation */
+    private final SimulationSettings settings = new SimulationSettings(SimulationSettings.DEFAULT_WIDTH, SimulationSettings.DEFAULT_HEIGHT);
+
+    /** number of steps to run, 0 runs until the process is stopped */
+    private final int steps;
+
+    /** agents of the simulation, stored off-heap */
+    private AgentStore agents;
+
+    /** backend that advances the simulation */
+    private CpuSimulationBackend backend;
+
+    /** number of steps run so far */
+    private int step;
+
+    /** start of the run in nanoseconds */
+    private long runStart;
+
+    /** start of the current report interval in nanoseconds */
+    private long reportStart;
+
+    /**
+     * @param steps number of steps to run, 0 runs until the process is stopped
+     */
+    public HeadlessProgram(int steps) {
+        this.steps = steps;
+    }
+
+    @Override
+    public void init() throws Exception {
+        agents = new AgentSpawner().spawn(settings.getAgentCount(), SpawnDistribution.byName(settings.getSpawnDistribution(), settings.getWidth(), settings.getHeight()), settings.getSeed());
+        backend = new CpuSimulationBackend();
+        backend.init(settings, agents);
+        runStart = System.nanoTime();
+        reportStart = runStart;
+    }
+
+    @Override
+    public void update(float interval) {
+        backend.step(settings);
+        step++;
+        if(step % REPORT_INTERVAL == 0) {
+            long now = System.nanoTime();
+            report("steps " + (step - REPORT_INTERVAL + 1) + "-" + step, REPORT_INTERVAL, now - reportStart);
+            reportStart = now;
+        }
+    }
+
+    @Override
+    public boolean isFinished() {
+        return steps > 0 && step >= steps;
+    }
+
+    @Override
+    public void cleanup() {
+        if(step > 0) {
+            report("total", step, System.nanoTime() - runStart);
+        }
+        if(backend != null) {
+            backend.cleanup();
+        }
+        if(agents != null) {
+            agents.free();
+        }
+    }
+
+    /**
+     * prints the throughput of some steps
+     *
+     * @param label name of the measured range
+     * @param measuredSteps number of steps
+     * @param nanos time of the steps in nanoseconds
+     */
+    private void report(String label, int measuredSteps, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%-16s %8.2f ms/step %10.1f steps/s %,16.0f agent steps/s%n", label,
+                seconds * 1e3 / measuredSteps, measuredSteps / seconds, (double) agents.getCount() * measuredSteps / seconds);
+    }
+
+    /**
+     * @return parameters of the simulation, the agent count and map format are read by init()
+     */
+    public SimulationSettings getSettings() {
+        return settings;
+    }
+}
@@ -2,10 +2,35 @@ package program;
 
 import engine.general.GameEngine;
 
+import java.util.Arrays;
+
+/**
+ * starts the simulation. Arguments:
+ * --headless runs the simulation without a window, always on the java (cpu) backend since the compute shaders
+ * need an OpenGL context, see runHeadless() for its arguments.
+ * --cpu runs the windowed simulation on the java backend instead of the compute shaders.
+ * --steps-per-frame=N and --target-step-ms=N set the pacing of the windowed simulation
+ */
 public class Main {
 
     public static void main(String[] args) {
-        Program program = new Program();
+        // --headless ignores --cpu, it always runs on the java backend
+        if(Arrays.asList(args).contains("--headless")) {
+            runHeadless(args);
+            return;
+        }
+
+        Program program = new Program(Arrays.asList(args).contains("--cpu"));
+        for(String arg : args) {
+            // --steps-per-frame=0 runs as many steps as fit into a frame
+            if(arg.startsWith("--steps-per-frame=")) {
+                program.setStepsPerFrame(Integer.parseInt(arg.substring("--steps-per-frame=".length())));
+            }
+            // --target-step-ms=8 activates and parks agents to hold 8 ms per step
+            if(arg.startsWith("--target-step-ms=")) {
+                program.setTargetStepTime(Float.parseFloat(arg.substring("--target-step-ms=".length())));
+            }
+        }
 
 
         GameEngine gameEngine = null;
@@ -18,4 +43,28 @@ public class Main {
         new Thread(gameEngine).start();
 
     }
+
+    /**
+     * runs the java simulation without a window, there is no gpu backend without an OpenGL context:
+     * --steps=N (0 runs until the process is stopped), --agents=N
+     *
+     * @param args command line arguments
+     */
+    private static void runHeadless(String[] args) {
+        int steps = 1000;
+        int agents = -1;
+        for(String arg : args) {
+            if(arg.startsWith("--steps=")) {
+                steps = Integer.parseInt(arg.substring("--steps=".length()));
+            }
+            if(arg.startsWith("--agents=")) {
+                agents = Integer.parseInt(arg.substring("--agents=".length()));
+            }
+        }
+        HeadlessProgram program = new HeadlessProgram(steps);
+        if(agents >= 0) {
+            program.getSettings().setAgentCount(agents);
+        }
+        new Thread(new GameEngine(program)).start();
+    }
 }
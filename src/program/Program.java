@@ -25,9 +25,41 @@ public class Program implements IGameLogic {
 
     public static int framebuffer;
 
+    /** if true the simulation runs in java instead of compute shaders */
+    private final boolean cpuSimulation;
+
+    /** number of simulation steps per presented frame, 0 for as many as fit into a frame */
+    private int stepsPerFrame = 1;
+
+    /** time in milliseconds a simulation step should take, 0 keeps all agents active */
+    private float targetStepTime = 0f;
+
+    /**
+     * @param cpuSimulation if true the simulation runs in java instead of compute shaders
+     */
+    public Program(boolean cpuSimulation) {
+        this.cpuSimulation = cpuSimulation;
+    }
+
+    /**
+     * @param stepsPerFrame number of simulation steps per presented frame, 0 for as many as fit into a frame
+     */
+    public void setStepsPerFrame(int stepsPerFrame) {
+        this.stepsPerFrame = stepsPerFrame;
+    }
+
+    /**
+     * @param targetStepTime time in milliseconds a simulation step should take, the active agents are adapted to it
+     */
+    public void setTargetStepTime(float targetStepTime) {
+        this.targetStepTime = targetStepTime;
+    }
+
     @Override
     public void init(Window window) throws Exception {
-        renderer = new Renderer();
+        renderer = new Renderer(cpuSimulation);
+        renderer.getSettings().setStepsPerFrame(stepsPerFrame);
+        renderer.getSettings().setTargetStepTime(targetStepTime);
         quad = new Quad();
 
 
@@ -96,6 +128,8 @@ public class Program implements IGameLogic {
 
     @Override
     public void cleanup() {
-
+        if(renderer != null) {
+            renderer.cleanup();
+        }
     }
 }